@@ -1,5 +1,6 @@
 package org.nphc.payroll.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.csv.CSVFormat;
@@ -7,11 +8,17 @@ import org.apache.commons.csv.CSVRecord;
 import org.nphc.payroll.dto.Employee;
 import org.nphc.payroll.dto.EmployeeDto;
 import org.nphc.payroll.dto.MessageException;
+import org.nphc.payroll.dto.SalaryAdjustment;
 import org.nphc.payroll.repository.EmployeeJdbc;
+import org.nphc.payroll.repository.EmployeeNameIndex;
+import org.nphc.payroll.repository.EmployeeWriteBatcher;
+import org.nphc.payroll.service.RequestCoalescer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -19,6 +26,10 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.*;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
 
 /**
@@ -26,8 +37,14 @@ import java.util.*;
  *  Employee controller handle request from http service.
  *  Upload URL : /users/upload, Method : POST, Fields : id, login, name, salary, startDate
  *  Query URL : /users, Method : GET,  filter by salary, order by all fields, pagination limit and offset
+ *  Name and login search : /users?name=..&login=..&match=prefix, substring match is default.
+ *  Concurrent identical GET requests are coalesced, sharing one database query and serialized response,
+ *  keys have the write generation so a request after a completed write never joins an older read.
  *  Update URL : /users/{id}, Method : PUT/PATCH, Employee updated by the id, request content json format.
  *  Delete URL : /users/{id}, Method : DELETE, Employee deleted by the id.
+ *  As-of URL : /users/as-of and /users/{id}/as-of, Method : GET, at timestamp, employee history as of the time.
+ *  Salary adjustment URL : /users/salary-adjustment, Method : POST, percent or fixed increment, dry run.
+ *  Concurrent single employee create and update are group committed by the write batcher.
  *  @author Ramesh
 */
 @RestController
@@ -38,39 +55,198 @@ public class EmployeeController {
     @Autowired
     private EmployeeJdbc employeeJdbc;
 
+    @Autowired
+    private RequestCoalescer requestCoalescer;
+
+    @Autowired
+    private EmployeeWriteBatcher writeBatcher;
+
+    @Value("${nphc.admission.max-page-size:1000}")
+    private int maxPageSize;
+
     /**
      * Employee list optional parameters are min & max salary, offset, page limit, order by default id
+     * Limit more than the maximum page size is rejected, without limit it is the default page of the maximum size
+     * with truncated and nextOffset when more employees are matching.
+     * Optional name and login text are matched by prefix or substring (default) from the name index.
      * */
     @GetMapping("users")
-    public @ResponseBody ResponseEntity<ObjectNode> search(
+    public @ResponseBody ResponseEntity<byte[]> search(
+            @RequestParam("name") Optional<String> name,
+            @RequestParam("login") Optional<String> login,
+            @RequestParam("match") Optional<String> match,
             @RequestParam("minSalary") Optional<BigDecimal>  minSalary,
             @RequestParam("maxSalary") Optional<BigDecimal> maxSalary,
             @RequestParam("offset") Optional<Integer> offset,
             @RequestParam("limit") Optional<Integer> limit,
             @RequestParam("sorting") Optional<String> sorting,
             @RequestParam("desc") Optional<Boolean> isDesc) {
-        List<Employee> employeeList = employeeJdbc.search(minSalary.orElse(null), maxSalary.orElse(null),
-                sorting.orElse("id"), limit.orElse(0), offset.orElse(0), isDesc.orElse(false));
-        EmployeeDto dto = new EmployeeDto();
-        JsonMapper mapper = new JsonMapper();
-        ObjectNode objectNode = mapper.createObjectNode();
-        objectNode.set("results", dto.getArrayNode(employeeList));
-        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+        BigDecimal min = minSalary.orElse(null), max = maxSalary.orElse(null);
+        String orderBy = sorting.orElse("id");
+        int pageLimit = getPageLimit(limit.orElse(0)), pageOffset = offset.orElse(0);
+        int queryLimit = getQueryLimit(limit.orElse(0), pageLimit);
+        boolean desc = isDesc.orElse(false), isPrefix = "prefix".equalsIgnoreCase(match.orElse("contains"));
+        String nameText = getSearchText(name), loginText = getSearchText(login);
+        String key = getCoalescingKey("search", getKeyText(min), getKeyText(max), orderBy, pageLimit, pageOffset,
+                desc, isPrefix, getKeyText(nameText), getKeyText(loginText));
+        byte[] body = requestCoalescer.execute(key, () -> {
+            List<Employee> employeeList = employeeJdbc.search(nameText, loginText, isPrefix, min, max, orderBy,
+                    queryLimit, pageOffset, desc);
+            return getPageBytes(employeeList, pageLimit, pageOffset);
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     /**
      * Find employee by id.
      * */
     @GetMapping("users/{id}")
-    public @ResponseBody ResponseEntity<ObjectNode> findById(@PathVariable("id") String id) {
+    public @ResponseBody ResponseEntity<byte[]> findById(@PathVariable("id") String id) {
         if(id == null || id.isEmpty()) {
             throw new MessageException("Bad input - no such employee");
         }
-        Employee employee = employeeJdbc.findById(id);
-        if(employee == null) {
-            throw new MessageException(HttpStatus.CREATED, "employee not found.");
+        byte[] body = requestCoalescer.execute(getCoalescingKey("id", id), () -> {
+            Employee employee = employeeJdbc.findById(id);
+            if(employee == null) {
+                throw new MessageException(HttpStatus.CREATED, "employee not found.");
+            }
+            return getJsonBytes(new JsonMapper(), new EmployeeDto().getObjectNode(employee));
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Employee list as of the timestamp, optional parameters are the same as the employee list
+     * except name and login.
+     * */
+    @GetMapping("users/as-of")
+    public @ResponseBody ResponseEntity<byte[]> searchAsOf(
+            @RequestParam("at") Optional<String> at,
+            @RequestParam("minSalary") Optional<BigDecimal>  minSalary,
+            @RequestParam("maxSalary") Optional<BigDecimal> maxSalary,
+            @RequestParam("offset") Optional<Integer> offset,
+            @RequestParam("limit") Optional<Integer> limit,
+            @RequestParam("sorting") Optional<String> sorting,
+            @RequestParam("desc") Optional<Boolean> isDesc) {
+        OffsetDateTime asOf = getAsOf(at);
+        BigDecimal min = minSalary.orElse(null), max = maxSalary.orElse(null);
+        String orderBy = sorting.orElse("id");
+        int pageLimit = getPageLimit(limit.orElse(0)), pageOffset = offset.orElse(0);
+        int queryLimit = getQueryLimit(limit.orElse(0), pageLimit);
+        boolean desc = isDesc.orElse(false);
+        String key = getCoalescingKey("as-of", asOf.toInstant(), getKeyText(min), getKeyText(max), orderBy,
+                pageLimit, pageOffset, desc);
+        byte[] body = requestCoalescer.execute(key, () -> {
+            List<Employee> employeeList = employeeJdbc.searchAsOf(asOf, min, max, orderBy, queryLimit, pageOffset,
+                    desc);
+            return getPageBytes(employeeList, pageLimit, pageOffset);
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Find employee by id as of the timestamp.
+     * */
+    @GetMapping("users/{id}/as-of")
+    public @ResponseBody ResponseEntity<byte[]> findByIdAsOf(@PathVariable("id") String id,
+                                                             @RequestParam("at") Optional<String> at) {
+        OffsetDateTime asOf = getAsOf(at);
+        byte[] body = requestCoalescer.execute(getCoalescingKey("as-of-id", asOf.toInstant(), id), () -> {
+            Employee employee = employeeJdbc.findByIdAsOf(id, asOf);
+            if(employee == null) {
+                throw new MessageException(HttpStatus.CREATED, "employee not found.");
+            }
+            return getJsonBytes(new JsonMapper(), new EmployeeDto().getObjectNode(employee));
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * As-of timestamp with offset (2022-05-20T10:15:30Z), local date time of the server zone,
+     * or a date which is the end of the day.
+     */
+    private OffsetDateTime getAsOf(Optional<String> at) {
+        String text = at.orElse("").trim();
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (text.length() == 10) {
+                return LocalDate.parse(text).plusDays(1).atStartOfDay(zone).toOffsetDateTime().minusNanos(1000);
+            }
+            TemporalAccessor value = DateTimeFormatter.ISO_DATE_TIME.parseBest(text, OffsetDateTime::from,
+                    LocalDateTime::from);
+            return value instanceof OffsetDateTime ? (OffsetDateTime) value
+                    : ((LocalDateTime) value).atZone(zone).toOffsetDateTime();
+        } catch (DateTimeParseException ex) {
+            throw new MessageException("Bad input - at should be a date or timestamp");
+        }
+    }
+
+    private int getPageLimit(int limit) {
+        if (maxPageSize <= 0) {
+            return limit;
+        }
+        if (maxPageSize < limit) {
+            throw new MessageException("Bad input - limit should not be more than " + maxPageSize);
+        }
+        return limit <= 0 ? maxPageSize : limit;
+    }
+
+    /**
+     * Default page is queried with one more employee to know it is truncated.
+     */
+    private int getQueryLimit(int limit, int pageLimit) {
+        return limit <= 0 && 0 < pageLimit ? pageLimit + 1 : pageLimit;
+    }
+
+    private byte[] getPageBytes(List<Employee> employeeList, int pageLimit, int pageOffset) {
+        JsonMapper mapper = new JsonMapper();
+        ObjectNode objectNode = mapper.createObjectNode();
+        boolean isTruncated = 0 < pageLimit && pageLimit < employeeList.size();
+        List<Employee> page = isTruncated ? employeeList.subList(0, pageLimit) : employeeList;
+        objectNode.set("results", new EmployeeDto().getArrayNode(page));
+        if (isTruncated) {
+            objectNode.put("truncated", true);
+            objectNode.put("nextOffset", Math.max(0, pageOffset) + pageLimit);
+        }
+        return getJsonBytes(mapper, objectNode);
+    }
+
+    /**
+     * Normalized text of the optional decimal parameter, 1000.0 and 1000 are same request.
+     */
+    /**
+     * Coalescing key of the read, the write generation keeps a read after a write from joining an older read.
+     */
+    private String getCoalescingKey(String kind, Object... parts) {
+        StringBuilder builder = new StringBuilder(kind).append(':').append(employeeJdbc.getWriteGeneration());
+        for (Object part : parts) {
+            builder.append(':').append(part);
+        }
+        return builder.toString();
+    }
+
+    private String getKeyText(BigDecimal value) {
+        return value == null ? "" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private String getKeyText(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = EmployeeNameIndex.normalize(text);
+        return normalized.length() + "/" + normalized;
+    }
+
+    private String getSearchText(Optional<String> text) {
+        return text.isPresent() && !text.get().trim().isEmpty() ? text.get() : null;
+    }
+
+    private byte[] getJsonBytes(JsonMapper mapper, ObjectNode objectNode) {
+        try {
+            return mapper.writeValueAsBytes(objectNode);
+        } catch (JsonProcessingException ex) {
+            throw new MessageException(HttpStatus.INTERNAL_SERVER_ERROR, ex.getMessage());
         }
-        return new ResponseEntity<>(new EmployeeDto().getObjectNode(employee), HttpStatus.OK);
     }
 
     /**
@@ -163,16 +339,24 @@ public class EmployeeController {
     @RequestMapping(value = "/users", method = RequestMethod.POST, consumes="application/json")
     public @ResponseBody ResponseEntity<ObjectNode> insertEmployee(@RequestBody  ObjectNode objectNode) {
         Employee employee = new EmployeeDto().getValidEmployee(objectNode);
-        if(employeeJdbc.isIdExists(employee)) {
-            throw new MessageException("Employee ID already exists");
-        }
-        if(employeeJdbc.isLoginExits(employee)) {
-            throw new MessageException("Employee login not unique");
-        }
-        employeeJdbc.insert(Collections.singletonList(employee));
+        writeBatcher.insert(employee);
         return getMessageResult("Successfully created", HttpStatus.OK);
     }
 
+    /**
+     * Bulk salary adjustment, percent or fixed increment with rounding, filter by salary and start date range.
+     * Dry run returns the count and the salary totals before and after without any update.
+     * */
+    @RequestMapping(value = "/users/salary-adjustment", method = RequestMethod.POST, consumes="application/json")
+    public @ResponseBody ResponseEntity<ObjectNode> adjustSalary(@RequestBody  ObjectNode objectNode) {
+        EmployeeDto dto = new EmployeeDto();
+        SalaryAdjustment adjustment = employeeJdbc.adjustSalary(dto.getValidSalaryAdjustment(objectNode));
+        if (!adjustment.isDryRun()) {
+            logger.info("Salary adjusted : " + adjustment.getCount());
+        }
+        return new ResponseEntity<>(dto.getObjectNode(adjustment), HttpStatus.OK);
+    }
+
     /**
      * Update employee information by id (PUT)
      * */
@@ -195,14 +379,7 @@ public class EmployeeController {
 
     private ResponseEntity<ObjectNode> updateEmployee(ObjectNode objectNode) {
         Employee employee = new EmployeeDto().getValidEmployee(objectNode);
-        Employee old = employeeJdbc.findById(employee.getId());
-        if(old == null) {
-            throw new MessageException("Bad input - no such employee");
-        }
-        if(employeeJdbc.isLoginExits(employee)) {
-            throw new MessageException("Employee login not unique");
-        }
-        employeeJdbc.update(Collections.singletonList(employee));
+        writeBatcher.update(employee);
         return getMessageResult("Successfully updated", HttpStatus.OK);
     }
 
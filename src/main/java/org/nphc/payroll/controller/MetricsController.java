@@ -0,0 +1,124 @@
+package org.nphc.payroll.controller;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.nphc.payroll.embeded.AdmissionFilter;
+import org.nphc.payroll.repository.EmployeeWriteBatcher;
+import org.nphc.payroll.repository.SlowQueryLog;
+import org.nphc.payroll.service.AdmissionGate;
+import org.nphc.payroll.service.RequestCoalescer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ *  NPHC Assignment
+ *  Metrics controller expose the service counters.
+ *  Coalescing URL : /metrics/coalescing, Method : GET, executed and coalesced request count, coalescing ratio.
+ *  Admission URL : /metrics/admission, Method : GET, admitted, queued and rejected uploads and heavy searches.
+ *  Slow query URL : /metrics/slow-queries, Method : GET list the slowest statements, DELETE reset the log.
+ *  Write batch URL : /metrics/write-batch, Method : GET, group committed writes, batches and retried batches.
+ *  @author Ramesh
+ */
+@RestController
+public class MetricsController {
+
+    @Autowired
+    private RequestCoalescer requestCoalescer;
+
+    @Autowired
+    private AdmissionFilter admissionFilter;
+
+    @Autowired
+    private SlowQueryLog slowQueryLog;
+
+    @Autowired
+    private EmployeeWriteBatcher writeBatcher;
+
+    /**
+     * Request coalescing counters of the employee read requests.
+     * */
+    @GetMapping("metrics/coalescing")
+    public @ResponseBody ResponseEntity<ObjectNode> coalescing() {
+        ObjectNode objectNode = new JsonMapper().createObjectNode();
+        objectNode.put("executed", requestCoalescer.getExecuted());
+        objectNode.put("coalesced", requestCoalescer.getCoalesced());
+        objectNode.put("inFlight", requestCoalescer.getInFlight());
+        objectNode.put("ratio", requestCoalescer.getCoalescingRatio());
+        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+    }
+
+    /**
+     * Admission control counters of the uploads and heavy searches.
+     * */
+    @GetMapping("metrics/admission")
+    public @ResponseBody ResponseEntity<ObjectNode> admission() {
+        JsonMapper mapper = new JsonMapper();
+        ObjectNode objectNode = mapper.createObjectNode();
+        objectNode.set("upload", getObjectNode(mapper, admissionFilter.getUploadGate()));
+        objectNode.set("search", getObjectNode(mapper, admissionFilter.getSearchGate()));
+        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+    }
+
+    private ObjectNode getObjectNode(JsonMapper mapper, AdmissionGate gate) {
+        ObjectNode objectNode = mapper.createObjectNode();
+        objectNode.put("admitted", gate.getAdmitted());
+        objectNode.put("queued", gate.getQueued());
+        objectNode.put("rejected", gate.getRejected());
+        objectNode.put("waiting", gate.getWaiting());
+        objectNode.put("available", gate.getAvailable());
+        return objectNode;
+    }
+
+    /**
+     * Group commit counters of the single employee writes.
+     * */
+    @GetMapping("metrics/write-batch")
+    public @ResponseBody ResponseEntity<ObjectNode> writeBatch() {
+        ObjectNode objectNode = new JsonMapper().createObjectNode();
+        objectNode.put("enabled", writeBatcher.isEnabled());
+        objectNode.put("running", writeBatcher.isRunning());
+        objectNode.put("writes", writeBatcher.getWrites());
+        objectNode.put("batches", writeBatcher.getBatches());
+        objectNode.put("retries", writeBatcher.getRetries());
+        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+    }
+
+    /**
+     * Slowest statements of the employee jdbc, slowest is first.
+     * */
+    @GetMapping("metrics/slow-queries")
+    public @ResponseBody ResponseEntity<ObjectNode> slowQueries() {
+        JsonMapper mapper = new JsonMapper();
+        ObjectNode objectNode = mapper.createObjectNode();
+        objectNode.put("enabled", slowQueryLog.isEnabled());
+        objectNode.put("thresholdMs", slowQueryLog.getThresholdMillis());
+        ArrayNode arrayNode = objectNode.putArray("results");
+        for (SlowQueryLog.SlowQuery slowQuery : slowQueryLog.getSlowQueries()) {
+            ObjectNode queryNode = arrayNode.addObject();
+            queryNode.put("sql", slowQuery.getSql());
+            queryNode.put("parameters", slowQuery.getParameters());
+            queryNode.put("rows", slowQuery.getRows());
+            queryNode.put("durationMs", slowQuery.getMillis());
+            queryNode.put("recordedAt", slowQuery.getRecordedAt().toString());
+            queryNode.put("plan", slowQuery.getPlan());
+        }
+        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+    }
+
+    /**
+     * Reset the slow query log.
+     * */
+    @DeleteMapping("metrics/slow-queries")
+    public @ResponseBody ResponseEntity<ObjectNode> resetSlowQueries() {
+        slowQueryLog.reset();
+        ObjectNode objectNode = new JsonMapper().createObjectNode();
+        objectNode.put("message", "Slow query log is reset");
+        return new ResponseEntity<>(objectNode, HttpStatus.OK);
+    }
+}
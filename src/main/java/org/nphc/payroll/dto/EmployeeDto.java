@@ -12,6 +12,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.RowMapper;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Date;
 import java.sql.JDBCType;
 import java.sql.ResultSet;
@@ -189,6 +190,89 @@ public class EmployeeDto implements RowMapper<Employee> {
         return employee;
     }
 
+    /**
+     * Get valid salary adjustment from JSON request, type is percent or fixed, rounding is HALF_UP, DOWN or UP
+     * with the scale 0 to 4, salary range and start date range are optional filters.
+     */
+    public SalaryAdjustment getValidSalaryAdjustment(ObjectNode objNode) {
+        SalaryAdjustment adjustment = new SalaryAdjustment();
+        adjustment.setType(getStrictValue(objNode, "type", String.class));
+        if (!SalaryAdjustment.PERCENT.equals(adjustment.getType()) && !SalaryAdjustment.FIXED.equals(adjustment.getType())) {
+            throw new MessageException(HttpStatus.BAD_REQUEST, "Adjustment type should be percent or fixed.");
+        }
+        adjustment.setAmount(getStrictValue(objNode, "amount", BigDecimal.class));
+        if (adjustment.getAmount() == null || BigDecimal.ZERO.compareTo(adjustment.getAmount()) == 0) {
+            throw new MessageException(HttpStatus.BAD_REQUEST, "Invalid adjustment amount");
+        }
+        String rounding = getStrictValue(objNode, "rounding", String.class);
+        if (rounding == null || "HALF_UP".equals(rounding)) {
+            adjustment.setRounding(RoundingMode.HALF_UP);
+        } else if ("DOWN".equals(rounding)) {
+            adjustment.setRounding(RoundingMode.DOWN);
+        } else if ("UP".equals(rounding)) {
+            adjustment.setRounding(RoundingMode.UP);
+        } else {
+            throw new MessageException(HttpStatus.BAD_REQUEST, "Rounding should be HALF_UP, DOWN or UP.");
+        }
+        Integer scale = getStrictValue(objNode, "scale", Integer.class);
+        adjustment.setScale(scale == null ? 2 : scale);
+        if (adjustment.getScale() < 0 || 4 < adjustment.getScale()) {
+            throw new MessageException(HttpStatus.BAD_REQUEST, "Rounding scale should be 0 to 4.");
+        }
+        adjustment.setMinSalary(getStrictValue(objNode, "minSalary", BigDecimal.class));
+        adjustment.setMaxSalary(getStrictValue(objNode, "maxSalary", BigDecimal.class));
+        adjustment.setStartDateFrom(getStrictValue(objNode, "startDateFrom", LocalDate.class));
+        adjustment.setStartDateTo(getStrictValue(objNode, "startDateTo", LocalDate.class));
+        Boolean dryRun = getStrictValue(objNode, "dryRun", Boolean.class);
+        adjustment.setDryRun(dryRun != null && dryRun);
+        return adjustment;
+    }
+
+    /**
+     * Salary adjustment result to json object conversion.
+     */
+    public ObjectNode getObjectNode(SalaryAdjustment adjustment) {
+        ObjectNode objectNode = new JsonMapper().createObjectNode();
+        objectNode.put("dryRun", adjustment.isDryRun());
+        objectNode.put("count", adjustment.getCount());
+        objectNode.put("totalBefore", adjustment.getTotalBefore());
+        objectNode.put("totalAfter", adjustment.getTotalAfter());
+        return objectNode;
+    }
+
+    /**
+     * Salary adjustment field, missing or null is not given, a value of the wrong type is rejected
+     * rather than defaulted, {"dryRun":"true"} must not run the update.
+     */
+    private <T> T getStrictValue(ObjectNode objNode, String name, Class<T> dType) {
+        JsonNode value = objNode.get(name);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        Object result = null;
+        if (Boolean.class.equals(dType) && value.isBoolean()) {
+            result = value.asBoolean();
+        } else if (String.class.equals(dType) && value.isTextual()) {
+            result = value.asText();
+        } else if (Integer.class.equals(dType) && value.isIntegralNumber()) {
+            result = value.asInt();
+        } else if (LocalDate.class.equals(dType) && value.isTextual()) {
+            result = getLocalDate(value.asText());
+        } else if (BigDecimal.class.equals(dType) && value.isNumber()) {
+            result = value.decimalValue();
+        } else if (BigDecimal.class.equals(dType) && value.isTextual()) {
+            try {
+                result = new BigDecimal(value.asText().trim());
+            } catch (NumberFormatException ex) {
+                logger.debug("Type conversion error : " + ex.getMessage());
+            }
+        }
+        if (result == null) {
+            throw new MessageException(HttpStatus.BAD_REQUEST, "Invalid " + name);
+        }
+        return dType.cast(result);
+    }
+
     /**
      * Validate employee before update to the database.
      */
@@ -216,7 +300,7 @@ public class EmployeeDto implements RowMapper<Employee> {
     }
 
     private Date getDate(LocalDate localDate) {
-        return  localDate == null ? null : Date.valueOf(LocalDate.now());
+        return  localDate == null ? null : Date.valueOf(localDate);
     }
 
     private BigDecimal getBigDecimal(String text) {
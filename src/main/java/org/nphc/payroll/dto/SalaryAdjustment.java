@@ -0,0 +1,120 @@
+package org.nphc.payroll.dto;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+
+/**
+ * Bulk salary adjustment, percentage or fixed increment with rounding, applied to the employees matching
+ * the salary range and start date range. Count and salary totals are the result of the adjustment.
+ *
+ * @author Selvaraj Ramesh
+ */
+public class SalaryAdjustment {
+    public static final String PERCENT = "percent", FIXED = "fixed";
+    private String type;
+    private BigDecimal amount, minSalary, maxSalary;
+    private int scale;
+    private RoundingMode rounding;
+    private LocalDate startDateFrom, startDateTo;
+    private boolean dryRun;
+    private long count;
+    private BigDecimal totalBefore = BigDecimal.ZERO, totalAfter = BigDecimal.ZERO;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public boolean isPercent() {
+        return PERCENT.equals(type);
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public BigDecimal getMinSalary() {
+        return minSalary;
+    }
+
+    public void setMinSalary(BigDecimal minSalary) {
+        this.minSalary = minSalary;
+    }
+
+    public BigDecimal getMaxSalary() {
+        return maxSalary;
+    }
+
+    public void setMaxSalary(BigDecimal maxSalary) {
+        this.maxSalary = maxSalary;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public void setScale(int scale) {
+        this.scale = scale;
+    }
+
+    public RoundingMode getRounding() {
+        return rounding;
+    }
+
+    public void setRounding(RoundingMode rounding) {
+        this.rounding = rounding;
+    }
+
+    public LocalDate getStartDateFrom() {
+        return startDateFrom;
+    }
+
+    public void setStartDateFrom(LocalDate startDateFrom) {
+        this.startDateFrom = startDateFrom;
+    }
+
+    public LocalDate getStartDateTo() {
+        return startDateTo;
+    }
+
+    public void setStartDateTo(LocalDate startDateTo) {
+        this.startDateTo = startDateTo;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotalBefore() {
+        return totalBefore;
+    }
+
+    public BigDecimal getTotalAfter() {
+        return totalAfter;
+    }
+
+    /**
+     * Add the count and salary totals of the adjusted chunk.
+     */
+    public synchronized void addResult(long count, BigDecimal totalBefore, BigDecimal totalAfter) {
+        this.count += count;
+        this.totalBefore = this.totalBefore.add(totalBefore == null ? BigDecimal.ZERO : totalBefore);
+        this.totalAfter = this.totalAfter.add(totalAfter == null ? BigDecimal.ZERO : totalAfter);
+    }
+}
@@ -0,0 +1,110 @@
+package org.nphc.payroll.embeded;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.nphc.payroll.service.AdmissionGate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Admission control filter around employee controller, it caps the concurrent uploads and heavy searches.
+ * The filter runs before multipart parsing, so rejected upload is not buffered.
+ * Heavy search is GET /users or /users/as-of without limit or with the limit more than the heavy limit.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionFilter.class);
+    private final AdmissionGate uploadGate, searchGate;
+    private final int heavyLimit, retryAfterSeconds;
+
+    public AdmissionFilter(@Value("${nphc.admission.upload.max-concurrent:2}") int uploadConcurrent,
+                           @Value("${nphc.admission.upload.max-queue:4}") int uploadQueue,
+                           @Value("${nphc.admission.search.max-concurrent:4}") int searchConcurrent,
+                           @Value("${nphc.admission.search.max-queue:8}") int searchQueue,
+                           @Value("${nphc.admission.search.heavy-limit:100}") int heavyLimit,
+                           @Value("${nphc.admission.queue-timeout-ms:500}") long queueTimeout,
+                           @Value("${nphc.admission.retry-after-seconds:1}") int retryAfterSeconds) {
+        this.uploadGate = new AdmissionGate(uploadConcurrent, uploadQueue, queueTimeout);
+        this.searchGate = new AdmissionGate(searchConcurrent, searchQueue, queueTimeout);
+        this.heavyLimit = heavyLimit;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdmissionGate gate = getGate(request);
+        if (gate == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!gate.acquire()) {
+            logger.debug("Request rejected by admission control : " + request.getRequestURI());
+            reject(response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            gate.release();
+        }
+    }
+
+    private AdmissionGate getGate(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if ("POST".equals(request.getMethod()) && "/users/upload".equals(path)) {
+            return uploadGate;
+        }
+        if ("GET".equals(request.getMethod()) && ("/users".equals(path) || "/users/as-of".equals(path))
+                && isHeavySearch(request.getParameter("limit"))) {
+            return searchGate;
+        }
+        return null;
+    }
+
+    private boolean isHeavySearch(String limit) {
+        if (limit == null || limit.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(limit.trim());
+            return value <= 0 || heavyLimit < value;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private void reject(HttpServletResponse response) throws IOException {
+        ObjectNode objectNode = new JsonMapper().createObjectNode();
+        objectNode.put("message", "Too many requests, please retry later.");
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(objectNode.toString());
+    }
+
+    public AdmissionGate getUploadGate() {
+        return uploadGate;
+    }
+
+    public AdmissionGate getSearchGate() {
+        return searchGate;
+    }
+}
@@ -1,13 +1,17 @@
 package org.nphc.payroll.embeded;
 
+import org.springframework.boot.LazyInitializationExcludeFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.web.servlet.error.ErrorMvcAutoConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 
 /**
  * Application entry point to NPHC Assignment.
+ * nphc.startup.exit-after-refresh is used to train the class data sharing archive, it exit after the startup.
  *
  * @author Selvaraj Ramesh
  */
@@ -17,6 +21,18 @@ import org.springframework.context.annotation.ComponentScan;
 public class Application {
 
     public static void main(String[] args) {
-        SpringApplication.run(Application.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(Application.class, args);
+        if (context.getEnvironment().getProperty("nphc.startup.exit-after-refresh", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    /**
+     * Lazy initialization of the fast-start profile keeps the application beans eager, the first request
+     * does not create the controllers, coalescer, write batcher and storage.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter applicationBeansExcludeFilter() {
+        return (beanName, beanDefinition, beanType) -> beanType.getName().startsWith("org.nphc.payroll.");
     }
 }
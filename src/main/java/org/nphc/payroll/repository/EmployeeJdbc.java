@@ -3,50 +3,162 @@ package org.nphc.payroll.repository;
 import org.nphc.payroll.dto.Employee;
 import org.nphc.payroll.dto.EmployeeDto;
 import org.nphc.payroll.dto.MessageException;
+import org.nphc.payroll.dto.SalaryAdjustment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.JDBCType;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * Jdbc template are used to communication layer with database to application service.
+ * In partitioned storage, single id operations go to the owning partition, search is scatter to all partitions
+ * and the sorted pages are merged. Login registry on partition zero keep the id and login unique globally.
+ * Name and login search index is updated after every successful write, statements are timed by slow query log.
+ * Every write also closes the open employee history row and copies the written row as the new open row,
+ * in the same transaction, so the employee and the search are answered as of a past timestamp.
+ * It is not lazy, tables are created before the service is taking the traffic.
  *
  * @author Selvaraj Ramesh
  */
 @Repository
+@Lazy(false)
 public class EmployeeJdbc {
     private static final Logger logger = LoggerFactory.getLogger(EmployeeJdbc.class);
+    // H2 error code of unique index or primary key violation, org.h2.api.ErrorCode.DUPLICATE_KEY_1
+    private static final int DUPLICATE_KEY = 23505;
+    // employee_login_uk and registry_login_uk unique constraints
+    private static final String LOGIN_CONSTRAINT = "_LOGIN_UK";
+    private static final String SELECT_SQL = "SELECT id, login, name, salary, start_date FROM employee ";
+    private static final String INSERT_SQL = "INSERT INTO employee (id, login, name, salary, start_date) values(?,?,?,?,?)";
+    private static final String UPDATE_SQL = "UPDATE employee SET login = ?, name = ?, salary = ?, start_date = ? WHERE id  = ?";
+    private static final String REGISTRY_INSERT_SQL = "INSERT INTO login_registry (id, login) values(?,?)";
+    private static final String REGISTRY_UPDATE_SQL = "UPDATE login_registry SET login = ? WHERE id = ?";
+    private static final String REGISTRY_DELETE_SQL = "DELETE FROM login_registry WHERE id = ?";
+    private static final String REGISTRY_LOCK_SQL = "SELECT id, login FROM login_registry WHERE id = ANY(?) FOR UPDATE";
+    // History row is valid in [valid_from, valid_to), the open row has the end of time as valid_to
+    private static final String HISTORY_OPEN_TO = "TIMESTAMP WITH TIME ZONE '9999-12-31 00:00:00+00'";
+    // Version as of the time is the first valid_to after it, one row read from the (id, valid_to) index
+    private static final String HISTORY_FIND_SQL = "SELECT id, login, name, salary, start_date FROM (SELECT id, " +
+            "login, name, salary, start_date, valid_from FROM employee_history WHERE id = ? AND valid_to > ? " +
+            "ORDER BY id, valid_to LIMIT 1) v WHERE valid_from <= ?";
+    // Every id with history drives the as-of search, the LEFT JOIN keeps the key table first
+    private static final String HISTORY_AS_OF_SQL = "SELECT id, login, name, salary, start_date FROM (SELECT h.id, " +
+            "h.login, h.name, h.salary, h.start_date FROM employee_history_key k LEFT JOIN employee_history h " +
+            "ON h.id = k.id AND h.valid_to = (SELECT x.valid_to FROM employee_history x WHERE x.id = k.id " +
+            "AND x.valid_to > ? ORDER BY x.id, x.valid_to LIMIT 1) WHERE h.valid_from <= ?) v ";
+    private static final String HISTORY_KEY_SQL = "MERGE INTO employee_history_key KEY (id) VALUES (?)";
+    private static final String HISTORY_CLOSE_SQL = "UPDATE employee_history SET valid_to = ? WHERE id = ? " +
+            "AND valid_to = " + HISTORY_OPEN_TO;
+    private static final String HISTORY_OPEN_SQL = "INSERT INTO employee_history (id, login, name, salary, " +
+            "start_date, valid_from) SELECT id, login, name, salary, start_date, ? FROM employee WHERE id = ?";
+    private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+    private static final int WRITE_LOCKS = 64;
+
+    static {
+        SORT_COLUMNS.put("id", "id");
+        SORT_COLUMNS.put("login", "login");
+        SORT_COLUMNS.put("name", "name");
+        SORT_COLUMNS.put("salary", "salary");
+        SORT_COLUMNS.put("startDate", "start_date");
+        SORT_COLUMNS.put("start_date", "start_date");
+    }
+
+    @Autowired
+    private EmployeePartitions partitions;
+
+    @Autowired
+    private EmployeeNameIndex nameIndex;
+
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private SlowQueryLog slowQueryLog;
+
+    @Value("${nphc.salary-adjustment.chunk-size:1000}")
+    private int adjustmentChunkSize;
+
+    private final AtomicLong lastValidFrom = new AtomicLong();
+    private final AtomicLong writeGeneration = new AtomicLong();
+    // Writes of an id are serialized from the database write to the name index change, index is in commit order
+    private final Lock[] writeLocks = IntStream.range(0, WRITE_LOCKS).mapToObj(index -> new ReentrantLock())
+            .toArray(Lock[]::new);
+
+    @Value("${nphc.search.max-id-filter:1000}")
+    private int maxIdFilter;
 
     /**
-     * Create Employee SQL Table if not created.
+     * Create Employee SQL Table if not created, on every partition.
      */
     @PostConstruct
     public void init() {
         try {
             logger.info("Creating sql table employee if not existed, id, login, name, salary, start_date");
-            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS employee(id varchar(32) PRIMARY KEY, " +
-                    "login VARCHAR(32) UNIQUE, name VARCHAR(128), salary decimal, start_date date);");
+            for (int index = 0; index < partitions.size(); index++) {
+                partitions.get(index).execute("CREATE TABLE IF NOT EXISTS employee(id varchar(32) PRIMARY KEY, " +
+                        "login VARCHAR(32), name VARCHAR(128), salary decimal(19, 4), start_date date, " +
+                        "CONSTRAINT employee_login_uk UNIQUE (login));");
+            }
+            logger.info("Creating sql table employee_history if not existed, employee fields, valid_from, valid_to");
+            for (int index = 0; index < partitions.size(); index++) {
+                JdbcTemplate template = partitions.get(index);
+                template.execute("CREATE TABLE IF NOT EXISTS employee_history(id varchar(32), login VARCHAR(32), " +
+                        "name VARCHAR(128), salary decimal(19, 4), start_date date, " +
+                        "valid_from TIMESTAMP WITH TIME ZONE NOT NULL, " +
+                        "valid_to TIMESTAMP WITH TIME ZONE DEFAULT " + HISTORY_OPEN_TO + " NOT NULL, " +
+                        "PRIMARY KEY (id, valid_from));");
+                template.execute("CREATE UNIQUE INDEX IF NOT EXISTS employee_history_to_uk " +
+                        "ON employee_history(id, valid_to);");
+                template.execute("CREATE TABLE IF NOT EXISTS employee_history_key(id varchar(32) PRIMARY KEY);");
+                template.execute("INSERT INTO employee_history (id, login, name, salary, start_date, valid_from) " +
+                        "SELECT id, login, name, salary, start_date, CURRENT_TIMESTAMP FROM employee e WHERE NOT EXISTS " +
+                        "(SELECT 1 FROM employee_history h WHERE h.id = e.id AND h.valid_to = " + HISTORY_OPEN_TO + ");");
+                template.execute("MERGE INTO employee_history_key KEY (id) SELECT DISTINCT id FROM employee_history;");
+            }
+            if (partitions.isPartitioned()) {
+                partitions.get(0).execute("CREATE TABLE IF NOT EXISTS login_registry(id varchar(32) PRIMARY KEY, " +
+                        "login VARCHAR(32) NOT NULL, CONSTRAINT registry_login_uk UNIQUE (login));");
+            }
+            for (int index = 0; index < partitions.size(); index++) {
+                nameIndex.putAll(executeQuery(partitions.get(index), SELECT_SQL, new EmployeeDto()));
+            }
+            logger.info("Employee name index loaded : " + nameIndex.size());
         } catch (DataAccessException ex) {
             logger.error(ex.getMessage());
             ex.printStackTrace();
         }
     }
 
+    /**
+     * Write generation, it is increased after every write is completed (or failed).
+     * Coalesced reads are keyed by it, so a read started before a write is not shared after the write.
+     */
+    public long getWriteGeneration() {
+        return writeGeneration.get();
+    }
+
     /**
      * find employee by ids.
      */
@@ -55,125 +167,713 @@ public class EmployeeJdbc {
         if (employeeList.isEmpty()) {
             return new ArrayList<>();
         }
-        List<Object> ids = new ArrayList<>();
-        employeeList.forEach(employee -> ids.add(employee.getId()));
-        String query = "SELECT id FROM employee WHERE id IN " + getInParameter(employeeList.size());
         RowMapper<String> rowMapper = (rs, rowNum) -> rs.getString(1);
-        return jdbcTemplate.query(query, rowMapper, ids.toArray());
+        List<Supplier<List<String>>> calls = new ArrayList<>();
+        getPartitionMap(employeeList).forEach((index, list) -> {
+            List<Object> ids = new ArrayList<>();
+            list.forEach(employee -> ids.add(employee.getId()));
+            String query = "SELECT id FROM employee WHERE id IN " + getInParameter(ids.size());
+            calls.add(() -> executeQuery(partitions.get(index), query, rowMapper, ids.toArray()));
+        });
+        List<String> result = new ArrayList<>();
+        partitions.parallel(calls).forEach(result::addAll);
+        return result;
     }
 
     /**
-     * To avoid employee id duplicate record exception, to check exits or not.
+     * Search employee list with filter by salary range, order by id, login, salary, startDate
+     * Pagination with offset and limit, rows of equal sort value are ordered by id.
      */
     @Transactional(readOnly = true)
-    public boolean isIdExists(Employee employee) {
-        String query = "SELECT COUNT(*) FROM employee WHERE id = ?1";
-        RowMapper<Integer> rowMapper = (rs, rowNum) -> rs.getInt(1);
-        Integer integer = jdbcTemplate.queryForObject(query, rowMapper, employee.getId());
-        return integer != null && 0 < integer;
+    public List<Employee> search(BigDecimal minSalary, BigDecimal maxSalary, String orderBy, int limit, int offset,
+                                 boolean isDesc) {
+        return search(null, minSalary, maxSalary, orderBy, limit, offset, isDesc);
     }
 
     /**
-     * To avoid employee login duplicate record exception, to check exits or not.
+     * Search employee list of the name and login text, matching ids are taken from the name index.
+     * Null name and login are not filtered, prefix or substring match.
      */
     @Transactional(readOnly = true)
-    public boolean isLoginExits(Employee employee) {
-        String query = "SELECT COUNT(*) FROM employee WHERE id != ?1 AND login = ?2";
-        RowMapper<Integer> rowMapper = (rs, rowNum) -> rs.getInt(1);
-        Integer integer = jdbcTemplate.queryForObject(query, rowMapper, employee.getId(), employee.getLogin());
-        return integer != null && 0 < integer;
+    public List<Employee> search(String name, String login, boolean isPrefix, BigDecimal minSalary,
+                                 BigDecimal maxSalary, String orderBy, int limit, int offset, boolean isDesc) {
+        if (name == null && login == null) {
+            return search(null, minSalary, maxSalary, orderBy, limit, offset, isDesc);
+        }
+        Set<String> ids = nameIndex.find(name, login, isPrefix);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return search(ids, minSalary, maxSalary, orderBy, limit, offset, isDesc);
     }
 
     /**
-     * Search employee list with filter by salary range, order by id, login, salary, startDate
-     * Pagination with offset and limit
+     * Search employee list as of the timestamp from the history, the version of each history key is seeked
+     * as in findByIdAsOf, so the cost follows the number of ids and not the history length. Filter, sorting
+     * and pagination are the same as search.
      */
     @Transactional(readOnly = true)
-    public List<Employee> search(BigDecimal minSalary, BigDecimal maxSalary, String orderBy, int limit, int offset,
-                                 boolean isDesc) {
+    public List<Employee> searchAsOf(OffsetDateTime asOf, BigDecimal minSalary, BigDecimal maxSalary, String orderBy,
+                                     int limit, int offset, boolean isDesc) {
+        return search(HISTORY_AS_OF_SQL, null, Arrays.asList(asOf, asOf), null,
+                minSalary, maxSalary, orderBy, limit, offset, isDesc);
+    }
+
+    private List<Employee> search(Set<String> ids, BigDecimal minSalary, BigDecimal maxSalary, String orderBy,
+                                  int limit, int offset, boolean isDesc) {
+        return search(SELECT_SQL, null, Collections.emptyList(), ids, minSalary, maxSalary, orderBy, limit, offset,
+                isDesc);
+    }
+
+    private List<Employee> search(String select, String condition, List<Object> conditionArgs, Set<String> ids,
+                                  BigDecimal minSalary, BigDecimal maxSalary, String orderBy, int limit, int offset,
+                                  boolean isDesc) {
+        String column = getSortColumn(orderBy);
         StringBuilder builder = new StringBuilder();
-        Map<Integer, Object> parameterMap = new HashMap<>();
-        int index = 0;
+        List<Object> parameters = new ArrayList<>(conditionArgs);
+        if (condition != null) {
+            builder.append(" AND ").append(condition);
+        }
+        int idIndex = parameters.size();
+        if (ids != null) {
+            builder.append(" AND id = ANY(?)");
+            parameters.add(ids.toArray(new String[0]));
+        }
         if (minSalary != null) {
-            index += 1;
-            builder.append(" AND salary > ?").append(index);
-            parameterMap.put(index, minSalary);
+            builder.append(" AND salary > ?");
+            parameters.add(minSalary);
         }
         if (maxSalary != null) {
-            index += 1;
-            builder.append(" AND salary < ?").append(index);
-            parameterMap.put(index, maxSalary);
-        }
-        if(orderBy == null) {
-            orderBy = "id";
-        } else if("startDate".equals(orderBy)) {
-            orderBy = "start_date";
+            builder.append(" AND salary < ?");
+            parameters.add(maxSalary);
         }
-        builder.append(" ORDER BY ").append(orderBy);
-        if (isDesc) {
-            builder.append(" DESC");
+        String direction = isDesc ? " DESC" : "";
+        builder.append(" ORDER BY ").append(column).append(direction);
+        if (!"id".equals(column)) {
+            builder.append(", id").append(direction);
         }
-        if (0 < limit) {
-            builder.append(" LIMIT ").append(limit);
+        String suffix = builder.toString();
+        if (suffix.startsWith(" AND")) {
+            suffix = suffix.replaceFirst(" AND", " WHERE ");
         }
-        if (0 < offset) {
-            builder.append(" OFFSET  ").append(offset);
+        Object[] args = parameters.toArray();
+        boolean isChunked = ids != null && 0 < maxIdFilter && maxIdFilter < ids.size();
+        if (!partitions.isPartitioned() && !isChunked) {
+            return executeQuery(partitions.get(0), select + suffix + getPageSuffix(limit, offset), new EmployeeDto(),
+                    args);
         }
-        PreparedStatementSetter statementSetter = ps -> parameterMap.forEach((integer, obj) -> {
-            try {
-                ps.setObject(integer, obj);
-            } catch (SQLException ex) {
-                throw new MessageException(ex.getMessage());
+        String query = select + suffix + getPageSuffix(0 < limit ? offset + limit : 0, 0);
+        List<Supplier<List<Employee>>> calls = new ArrayList<>();
+        if (ids == null) {
+            for (int index = 0; index < partitions.size(); index++) {
+                JdbcTemplate template = partitions.get(index);
+                calls.add(() -> executeQuery(template, query, new EmployeeDto(), args));
             }
-        });
-        String suffix = builder.toString();
-        if (builder.toString().startsWith(" AND")) {
-            suffix = suffix.replaceFirst(" AND", " WHERE ");
+        } else {
+            // The ids of a partition are bound in arrays of at most max-id-filter, the sorted pages are merged
+            Map<Integer, List<String>> idMap = new TreeMap<>();
+            ids.forEach(id -> idMap.computeIfAbsent(partitions.indexOf(id), index -> new ArrayList<>()).add(id));
+            idMap.forEach((index, list) -> {
+                JdbcTemplate template = partitions.get(index);
+                int size = 0 < maxIdFilter ? maxIdFilter : list.size();
+                for (int from = 0; from < list.size(); from += size) {
+                    Object[] values = args.clone();
+                    values[idIndex] = list.subList(from, Math.min(from + size, list.size())).toArray(new String[0]);
+                    calls.add(() -> executeQuery(template, query, new EmployeeDto(), values));
+                }
+            });
         }
-        return jdbcTemplate.query("SELECT id, login, name, salary, start_date FROM employee " + suffix, statementSetter, new EmployeeDto());
+        return merge(partitions.parallel(calls), getComparator(column, isDesc), limit, offset);
     }
 
     /**
-     * Search employee list with filter by salary range, order by id, login, salary, startDate
-     * Pagination with offset and limit
+     * Find employee by id from the owning partition.
      */
     @Transactional(readOnly = true)
     public Employee findById(String id) {
-        PreparedStatementSetter statementSetter = ps -> ps.setString(1, id);
-        List<Employee> list = jdbcTemplate.query("SELECT id, login, name, salary, start_date FROM employee WHERE id = ?1",
-                statementSetter, new EmployeeDto());
+        List<Employee> list = executeQuery(partitions.getOwner(id), SELECT_SQL + "WHERE id = ?", new EmployeeDto(), id);
         return list.isEmpty() ? null : list.get(0);
     }
 
     /**
-     * Delete employee by id
+     * Find employee by id as of the timestamp, the history row is the first valid_to after the timestamp,
+     * seeked by the (id, valid_to) index, when its valid_from is not after the timestamp.
+     */
+    @Transactional(readOnly = true)
+    public Employee findByIdAsOf(String id, OffsetDateTime asOf) {
+        List<Employee> list = executeQuery(partitions.getOwner(id), HISTORY_FIND_SQL, new EmployeeDto(), id, asOf,
+                asOf);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Delete employee by id, the open history row is closed.
      */
     public int deleteById(String id) {
-        PreparedStatementSetter statementSetter = ps -> ps.setString(1, id);
-        return jdbcTemplate.update("DELETE FROM employee WHERE id = ?1", statementSetter);
+        List<Lock> locks = lockWrites(Collections.singletonList(id));
+        try {
+            int index = partitions.indexOf(id);
+            JdbcTemplate template = partitions.get(index);
+            int count = partitions.getTransaction(index).execute(status -> {
+                int rows = executeUpdate(template, "DELETE FROM employee WHERE id = ?", new Object[]{id}, null);
+                if (0 < rows) {
+                    writeHistory(template, Collections.singletonList(id), true, false);
+                }
+                return rows;
+            });
+            if (0 < count) {
+                unregister(Collections.singletonList(new Employee(id)));
+                nameIndex.remove(id);
+            }
+            return count;
+        } finally {
+            unlockWrites(locks);
+            writeGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Insert employee in one statement, primary key and unique login constraint are detecting the conflict.
+     */
+    public void insert(Employee employee) {
+        List<Lock> locks = lockWrites(Collections.singletonList(employee.getId()));
+        try {
+            register(Collections.singletonList(employee));
+            EmployeeDto dto = new EmployeeDto();
+            int index = partitions.indexOf(employee.getId());
+            JdbcTemplate template = partitions.get(index);
+            try {
+                partitions.getTransaction(index).executeWithoutResult(status -> {
+                    executeUpdate(template, INSERT_SQL, dto.getInsertParameters(employee), dto.getInsertSQLType());
+                    writeHistory(template, Collections.singletonList(employee.getId()), false, true);
+                });
+            } catch (RuntimeException ex) {
+                unregister(Collections.singletonList(employee));
+                throw getConflictException(ex, "Employee ID already exists");
+            }
+            nameIndex.put(employee);
+        } finally {
+            unlockWrites(locks);
+            writeGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Update employee in one statement, unique login constraint is detecting the conflict.
+     * Partitioned storage, the registry login change is held in the partition zero transaction until
+     * the employee row is written, it is rolled back when the employee update failed.
+     */
+    public void update(Employee employee) {
+        List<Lock> locks = lockWrites(Collections.singletonList(employee.getId()));
+        try {
+            if (partitions.isPartitioned()) {
+                partitions.getTransaction(0).executeWithoutResult(status -> {
+                    int count;
+                    try {
+                        count = executeUpdate(partitions.get(0), REGISTRY_UPDATE_SQL,
+                                new Object[]{employee.getLogin(), employee.getId()}, getVarcharTypes(2));
+                    } catch (RuntimeException ex) {
+                        throw getConflictException(ex, "Bad input - no such employee");
+                    }
+                    if (count == 0) {
+                        throw new MessageException("Bad input - no such employee");
+                    }
+                    updateOwner(employee);
+                });
+            } else {
+                updateOwner(employee);
+            }
+            nameIndex.put(employee);
+        } finally {
+            unlockWrites(locks);
+            writeGeneration.incrementAndGet();
+        }
     }
 
+    private void updateOwner(Employee employee) {
+        EmployeeDto dto = new EmployeeDto();
+        int index = partitions.indexOf(employee.getId());
+        JdbcTemplate template = partitions.get(index);
+        int count;
+        try {
+            count = partitions.getTransaction(index).execute(status -> {
+                int rows = executeUpdate(template, UPDATE_SQL, dto.getUpdateObjects(employee), dto.getUpdateSQLType());
+                if (0 < rows) {
+                    writeHistory(template, Collections.singletonList(employee.getId()), true, true);
+                }
+                return rows;
+            });
+        } catch (RuntimeException ex) {
+            throw getConflictException(ex, "Bad input - no such employee");
+        }
+        if (count == 0) {
+            throw new MessageException("Bad input - no such employee");
+        }
+    }
 
     /**
-     * Insert employees
+     * Insert employees, each partition is written in parallel within its own transaction.
      */
     public void insert(List<Employee> employeeList) {
+        List<Lock> locks = lockWrites(getIds(employeeList));
+        try {
+            register(employeeList);
+            EmployeeDto dto = new EmployeeDto();
+            List<Supplier<Integer>> calls = new ArrayList<>();
+            getPartitionMap(employeeList).forEach((index, list) -> calls.add(() -> {
+                List<Object[]> parameters = new ArrayList<>();
+                list.forEach(employee -> parameters.add(dto.getInsertParameters(employee)));
+                try {
+                    partitions.getTransaction(index).executeWithoutResult(status -> {
+                        executeBatch(partitions.get(index), INSERT_SQL, parameters, dto.getInsertSQLType());
+                        List<String> ids = new ArrayList<>();
+                        list.forEach(employee -> ids.add(employee.getId()));
+                        writeHistory(partitions.get(index), ids, false, true);
+                    });
+                } catch (RuntimeException ex) {
+                    unregister(list);
+                    throw getConflictException(ex, "Employee ID already exists");
+                }
+                nameIndex.putAll(list);
+                return list.size();
+            }));
+            partitions.parallel(calls);
+        } finally {
+            unlockWrites(locks);
+            writeGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Update employees, each partition is written in parallel within its own transaction.
+     * Partitioned storage, the registry login changes are held in the partition zero transaction until
+     * the partitions are written, logins of the failed partitions are restored before it is committed.
+     * Returns the ids of employees not found.
+     */
+    public List<String> update(List<Employee> employeeList) {
+        List<Lock> locks = lockWrites(getIds(employeeList));
+        try {
+            List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<>());
+            List<String> result;
+            if (partitions.isPartitioned()) {
+                result = partitions.getTransaction(0).execute(status -> {
+                    Map<String, String> previous = new HashMap<>();
+                    List<String> ids = new ArrayList<>();
+                    List<Object[]> parameters = new ArrayList<>();
+                    employeeList.forEach(employee -> {
+                        ids.add(employee.getId());
+                        parameters.add(new Object[]{employee.getLogin(), employee.getId()});
+                    });
+                    executeQuery(partitions.get(0), REGISTRY_LOCK_SQL, (rs, rowNum) -> previous.put(rs.getString(1),
+                            rs.getString(2)), (Object) ids.toArray(new String[0]));
+                    try {
+                        executeBatch(partitions.get(0), REGISTRY_UPDATE_SQL, parameters, getVarcharTypes(2));
+                    } catch (RuntimeException ex) {
+                        throw getConflictException(ex, "Bad input - no such employee");
+                    }
+                    List<Employee> failed = Collections.synchronizedList(new ArrayList<>());
+                    List<String> missing = updatePartitions(employeeList, failed, failures);
+                    if (status.isRollbackOnly()) {
+                        // partition zero update joined this transaction and failed, all registry changes roll back
+                        status.setRollbackOnly();
+                    } else if (!failed.isEmpty()) {
+                        List<Object[]> restore = new ArrayList<>();
+                        failed.forEach(employee -> restore.add(new Object[]{previous.get(employee.getId()),
+                                employee.getId()}));
+                        executeBatch(partitions.get(0), REGISTRY_UPDATE_SQL, restore, getVarcharTypes(2));
+                    }
+                    return missing;
+                });
+            } else {
+                result = updatePartitions(employeeList, new ArrayList<>(), failures);
+            }
+            if (!failures.isEmpty()) {
+                throw failures.get(0);
+            }
+            return result;
+        } finally {
+            unlockWrites(locks);
+            writeGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Update the partitions in parallel, the employees of a failed partition and its failure are collected.
+     */
+    private List<String> updatePartitions(List<Employee> employeeList, List<Employee> failed,
+                                          List<RuntimeException> failures) {
         EmployeeDto dto = new EmployeeDto();
+        List<Supplier<List<String>>> calls = new ArrayList<>();
+        getPartitionMap(employeeList).forEach((index, list) -> calls.add(() -> {
+            List<Object[]> parameters = new ArrayList<>();
+            list.forEach(employee -> parameters.add(dto.getUpdateObjects(employee)));
+            int[] counts;
+            try {
+                counts = partitions.getTransaction(index).execute(status -> {
+                    int[] rows = executeBatch(partitions.get(index), UPDATE_SQL, parameters, dto.getUpdateSQLType());
+                    List<String> ids = new ArrayList<>();
+                    for (int row = 0; row < list.size(); row++) {
+                        if (rows == null || rows[row] != 0) {
+                            ids.add(list.get(row).getId());
+                        }
+                    }
+                    writeHistory(partitions.get(index), ids, true, true);
+                    return rows;
+                });
+            } catch (RuntimeException ex) {
+                failed.addAll(list);
+                failures.add(getConflictException(ex, "Bad input - no such employee"));
+                return Collections.<String>emptyList();
+            }
+            List<String> missing = new ArrayList<>();
+            for (int row = 0; row < list.size(); row++) {
+                if (counts != null && counts[row] == 0) {
+                    missing.add(list.get(row).getId());
+                } else {
+                    nameIndex.put(list.get(row));
+                }
+            }
+            return missing;
+        }));
+        List<String> result = new ArrayList<>();
+        partitions.parallel(calls).forEach(result::addAll);
+        return result;
+    }
+
+    /**
+     * Bulk salary adjustment of the employees matching the salary and start date range.
+     * Totals are checked first, no write when any adjusted salary is not positive or it is a dry run.
+     * Otherwise one set based update per chunk of ids (keyset by id), each chunk is its own transaction,
+     * one chunk of every partition runs in parallel per round, so the partition pool is free between chunks.
+     */
+    public SalaryAdjustment adjustSalary(SalaryAdjustment adjustment) {
+        try {
+            List<Object> filterArgs = new ArrayList<>();
+            String filter = getAdjustmentFilter(adjustment, filterArgs);
+            String expression = getAdjustmentExpression(adjustment);
+            Object value = adjustment.isPercent() ? BigDecimal.ONE.add(adjustment.getAmount().movePointLeft(2))
+                    : adjustment.getAmount();
+            String totalSql = "SELECT COUNT(*), SUM(salary), SUM(" + expression + "), SUM(CASE WHEN " + expression +
+                    " <= 0 THEN 1 ELSE 0 END) FROM employee WHERE id > ?" + filter;
+            List<Object> totalArgs = new ArrayList<>(Arrays.asList(value, value, ""));
+            totalArgs.addAll(filterArgs);
+            RowMapper<BigDecimal[]> totalMapper = (rs, rowNum) -> new BigDecimal[]{rs.getBigDecimal(1),
+                    rs.getBigDecimal(2), rs.getBigDecimal(3), rs.getBigDecimal(4)};
+            List<Supplier<List<BigDecimal[]>>> totalCalls = new ArrayList<>();
+            for (int index = 0; index < partitions.size(); index++) {
+                JdbcTemplate template = partitions.get(index);
+                totalCalls.add(() -> executeQuery(template, totalSql, totalMapper, totalArgs.toArray()));
+            }
+            List<BigDecimal[]> totals = new ArrayList<>();
+            partitions.parallel(totalCalls).forEach(totals::addAll);
+            for (BigDecimal[] total : totals) {
+                if (total[3] != null && 0 < total[3].signum()) {
+                    throw new MessageException(HttpStatus.BAD_REQUEST, "Bad input - adjusted salary should be positive");
+                }
+            }
+            if (adjustment.isDryRun()) {
+                totals.forEach(total -> adjustment.addResult(total[0].longValue(), total[1], total[2]));
+                return adjustment;
+            }
+            String boundSql = "SELECT MAX(id) FROM (SELECT id FROM employee WHERE id > ?" + filter +
+                    " ORDER BY id LIMIT ?)";
+            String chunkSql = "SELECT id FROM employee WHERE id > ? AND id <= ?" + filter + " FOR UPDATE";
+            String chunkIds = " WHERE id > ? AND id <= ? AND id = ANY(?)";
+            String chunkTotalSql = "SELECT COUNT(*), SUM(salary), SUM(" + expression + ") FROM employee" + chunkIds;
+            String updateSql = "UPDATE employee SET salary = " + expression + chunkIds;
+            RowMapper<BigDecimal[]> chunkMapper = (rs, rowNum) -> new BigDecimal[]{rs.getBigDecimal(1),
+                    rs.getBigDecimal(2), rs.getBigDecimal(3)};
+            // One chunk of every unfinished partition per round, the partition pool is not held between chunks
+            Map<Integer, String> lastIds = new TreeMap<>();
+            for (int index = 0; index < partitions.size(); index++) {
+                lastIds.put(index, "");
+            }
+            while (!lastIds.isEmpty()) {
+                List<Integer> indexes = new ArrayList<>(lastIds.keySet());
+                List<Supplier<String>> calls = new ArrayList<>();
+                for (int partition : indexes) {
+                    String lowerId = lastIds.get(partition);
+                    calls.add(() -> {
+                        JdbcTemplate template = partitions.get(partition);
+                        List<Object> boundArgs = new ArrayList<>(Collections.singletonList(lowerId));
+                        boundArgs.addAll(filterArgs);
+                        boundArgs.add(Math.max(1, adjustmentChunkSize));
+                        String upperId = executeQuery(template, boundSql, (rs, rowNum) -> rs.getString(1),
+                                boundArgs.toArray()).get(0);
+                        if (upperId == null) {
+                            return null;
+                        }
+                        List<Object> lockArgs = new ArrayList<>(Arrays.asList(lowerId, upperId));
+                        lockArgs.addAll(filterArgs);
+                        partitions.getTransaction(partition).executeWithoutResult(status -> {
+                            List<String> ids = executeQuery(template, chunkSql, (rs, rowNum) -> rs.getString(1),
+                                    lockArgs.toArray());
+                            Object[] chunkArgs = new Object[]{value, lowerId, upperId, ids.toArray(new String[0])};
+                            BigDecimal[] total = executeQuery(template, chunkTotalSql, chunkMapper, chunkArgs).get(0);
+                            int count = executeUpdate(template, updateSql, chunkArgs, null);
+                            writeHistory(template, ids, true, true);
+                            adjustment.addResult(count, total[1], total[2]);
+                        });
+                        return upperId;
+                    });
+                }
+                List<String> upperIds = partitions.parallel(calls);
+                for (int position = 0; position < indexes.size(); position++) {
+                    if (upperIds.get(position) == null) {
+                        lastIds.remove(indexes.get(position));
+                    } else {
+                        lastIds.put(indexes.get(position), upperIds.get(position));
+                    }
+                }
+            }
+            return adjustment;
+        } finally {
+            writeGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Salary range is exclusive, the same as search, start date range is inclusive.
+     */
+    private String getAdjustmentFilter(SalaryAdjustment adjustment, List<Object> args) {
+        StringBuilder builder = new StringBuilder();
+        if (adjustment.getMinSalary() != null) {
+            builder.append(" AND salary > ?");
+            args.add(adjustment.getMinSalary());
+        }
+        if (adjustment.getMaxSalary() != null) {
+            builder.append(" AND salary < ?");
+            args.add(adjustment.getMaxSalary());
+        }
+        if (adjustment.getStartDateFrom() != null) {
+            builder.append(" AND start_date >= ?");
+            args.add(Date.valueOf(adjustment.getStartDateFrom()));
+        }
+        if (adjustment.getStartDateTo() != null) {
+            builder.append(" AND start_date <= ?");
+            args.add(Date.valueOf(adjustment.getStartDateTo()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Adjusted salary expression, ROUND is half up, TRUNC is down and UP is the ceiling of the positive salary.
+     */
+    private String getAdjustmentExpression(SalaryAdjustment adjustment) {
+        String expression = adjustment.isPercent() ? "salary * ?" : "salary + ?";
+        int scale = adjustment.getScale();
+        if (RoundingMode.DOWN.equals(adjustment.getRounding())) {
+            return "TRUNC(" + expression + ", " + scale + ")";
+        } else if (RoundingMode.UP.equals(adjustment.getRounding())) {
+            String factor = BigDecimal.ONE.movePointRight(scale).toPlainString();
+            return "CEILING((" + expression + ") * " + factor + ") / " + factor;
+        }
+        return "ROUND(" + expression + ", " + scale + ")";
+    }
+
+    /**
+     * Close the open history rows and copy the employee rows as the new open rows, in the caller transaction.
+     * It is called after the employee row is written, the row lock keep the valid_from of an id in order.
+     * Inserted ids are added to the history keys driving the as-of search.
+     */
+    private void writeHistory(JdbcTemplate template, Collection<String> ids, boolean isClose, boolean isOpen) {
+        if (ids.isEmpty()) {
+            return;
+        }
         List<Object[]> parameters = new ArrayList<>();
-        employeeList.forEach(employee -> parameters.add(dto.getInsertParameters(employee)));
-        jdbcTemplate.batchUpdate("INSERT INTO employee (id, login, name, salary, start_date) values(?,?,?,?,?)",
-                parameters, dto.getInsertSQLType());
+        ids.forEach(id -> parameters.add(new Object[]{nextValidFrom(), id}));
+        if (isClose) {
+            executeBatch(template, HISTORY_CLOSE_SQL, parameters, null);
+        }
+        if (isOpen && !isClose) {
+            List<Object[]> keys = new ArrayList<>();
+            ids.forEach(id -> keys.add(new Object[]{id}));
+            executeBatch(template, HISTORY_KEY_SQL, keys, null);
+        }
+        if (isOpen) {
+            executeBatch(template, HISTORY_OPEN_SQL, parameters, null);
+        }
     }
 
     /**
-     * Update employees
+     * Validity timestamp of the history row, strictly increasing in microseconds (the timestamp precision)
+     * so two versions of an id never have the same valid_from.
      */
-    public void update(List<Employee> employeeList) {
-        EmployeeDto dto = new EmployeeDto();
+    private OffsetDateTime nextValidFrom() {
+        Instant now = Instant.now();
+        long micros = lastValidFrom.updateAndGet(last -> Math.max(last + 1,
+                ChronoUnit.MICROS.between(Instant.EPOCH, now)));
+        return OffsetDateTime.ofInstant(Instant.EPOCH.plus(micros, ChronoUnit.MICROS), ZoneOffset.UTC);
+    }
+
+    /**
+     * Lock the write lock stripes of the ids, in the stripe order so the writers never wait for each other in a cycle.
+     */
+    private List<Lock> lockWrites(Collection<String> ids) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        ids.forEach(id -> stripes.add(Math.floorMod(id.hashCode(), WRITE_LOCKS)));
+        List<Lock> locks = new ArrayList<>();
+        for (int stripe : stripes) {
+            writeLocks[stripe].lock();
+            locks.add(writeLocks[stripe]);
+        }
+        return locks;
+    }
+
+    private void unlockWrites(List<Lock> locks) {
+        for (int index = locks.size() - 1; 0 <= index; index--) {
+            locks.get(index).unlock();
+        }
+    }
+
+    private List<String> getIds(List<Employee> employeeList) {
+        List<String> ids = new ArrayList<>();
+        employeeList.forEach(employee -> ids.add(employee.getId()));
+        return ids;
+    }
+
+    /**
+     * Partitioned storage, id and login are registered on partition zero before the employee is written.
+     */
+    private void register(List<Employee> employeeList) {
+        if (!partitions.isPartitioned()) {
+            return;
+        }
         List<Object[]> parameters = new ArrayList<>();
-        employeeList.forEach(employee -> parameters.add(dto.getUpdateObjects(employee)));
-        jdbcTemplate.batchUpdate("UPDATE employee SET login = ?, name = ?, salary = ?, start_date = ? WHERE id  = ?",
-                parameters, dto.getUpdateSQLType());
+        employeeList.forEach(employee -> parameters.add(new Object[]{employee.getId(), employee.getLogin()}));
+        try {
+            partitions.getTransaction(0).executeWithoutResult(status -> executeBatch(partitions.get(0),
+                    REGISTRY_INSERT_SQL, parameters, getVarcharTypes(2)));
+        } catch (RuntimeException ex) {
+            throw getConflictException(ex, "Employee ID already exists");
+        }
+    }
+
+    private void unregister(List<Employee> employeeList) {
+        if (!partitions.isPartitioned()) {
+            return;
+        }
+        List<Object[]> parameters = new ArrayList<>();
+        employeeList.forEach(employee -> parameters.add(new Object[]{employee.getId()}));
+        executeBatch(partitions.get(0), REGISTRY_DELETE_SQL, parameters, getVarcharTypes(1));
+    }
+
+    private <T> List<T> executeQuery(JdbcTemplate template, String sql, RowMapper<T> rowMapper, Object... args) {
+        return slowQueryLog.record(template, sql, args, () -> template.query(sql, rowMapper, args));
+    }
+
+    private int executeUpdate(JdbcTemplate template, String sql, Object[] args, int[] types) {
+        return slowQueryLog.record(template, sql, args, () -> types == null ? template.update(sql, args)
+                : template.update(sql, args, types));
+    }
+
+    /**
+     * Batch statement, bind values of the first row are recorded by the slow query log.
+     */
+    private int[] executeBatch(JdbcTemplate template, String sql, List<Object[]> parameters, int[] types) {
+        Object[] args = parameters.isEmpty() ? new Object[0] : parameters.get(0);
+        return slowQueryLog.record(template, sql, args, () -> types == null ? template.batchUpdate(sql, parameters)
+                : template.batchUpdate(sql, parameters, types));
+    }
+
+    /**
+     * H2 constraint violation to message, login unique constraints are named, otherwise it is the primary key.
+     */
+    private RuntimeException getConflictException(RuntimeException ex, String keyMessage) {
+        if (!(ex instanceof DuplicateKeyException)) {
+            return ex;
+        }
+        Throwable cause = ((DuplicateKeyException) ex).getMostSpecificCause();
+        if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == DUPLICATE_KEY
+                && cause.getMessage() != null && cause.getMessage().toUpperCase().contains(LOGIN_CONSTRAINT)) {
+            return new MessageException("Employee login not unique");
+        }
+        logger.debug(cause.getMessage());
+        return new MessageException(keyMessage);
+    }
+
+    private Map<Integer, List<Employee>> getPartitionMap(List<Employee> employeeList) {
+        Map<Integer, List<Employee>> partitionMap = new TreeMap<>();
+        employeeList.forEach(employee -> partitionMap.computeIfAbsent(partitions.indexOf(employee.getId()),
+                index -> new ArrayList<>()).add(employee));
+        return partitionMap;
+    }
+
+    private String getSortColumn(String orderBy) {
+        if (orderBy == null) {
+            return "id";
+        }
+        String column = SORT_COLUMNS.get(orderBy);
+        if (column == null) {
+            throw new MessageException("Invalid sorting, it should be id, login, name, salary or startDate");
+        }
+        return column;
+    }
+
+    private Comparator<Employee> getComparator(String column, boolean isDesc) {
+        Comparator<Employee> comparator;
+        if ("login".equals(column)) {
+            comparator = Comparator.comparing(Employee::getLogin);
+        } else if ("name".equals(column)) {
+            comparator = Comparator.comparing(Employee::getName);
+        } else if ("salary".equals(column)) {
+            comparator = Comparator.comparing(Employee::getSalary);
+        } else if ("start_date".equals(column)) {
+            comparator = Comparator.comparing(Employee::getStartDate);
+        } else {
+            comparator = Comparator.comparing(Employee::getId);
+        }
+        comparator = comparator.thenComparing(Employee::getId);
+        return isDesc ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * K-way merge of the sorted partition pages, then the offset and limit are applied.
+     */
+    private List<Employee> merge(List<List<Employee>> pages, Comparator<Employee> comparator, int limit, int offset) {
+        Map<Iterator<Employee>, Employee> heads = new IdentityHashMap<>();
+        PriorityQueue<Iterator<Employee>> queue = new PriorityQueue<>(Math.max(1, pages.size()),
+                (first, second) -> comparator.compare(heads.get(first), heads.get(second)));
+        for (List<Employee> page : pages) {
+            Iterator<Employee> iterator = page.iterator();
+            if (iterator.hasNext()) {
+                heads.put(iterator, iterator.next());
+                queue.add(iterator);
+            }
+        }
+        List<Employee> result = new ArrayList<>();
+        int skip = Math.max(0, offset);
+        while (!queue.isEmpty() && (limit <= 0 || result.size() < limit)) {
+            Iterator<Employee> iterator = queue.poll();
+            Employee employee = heads.remove(iterator);
+            if (0 < skip) {
+                skip -= 1;
+            } else {
+                result.add(employee);
+            }
+            if (iterator.hasNext()) {
+                heads.put(iterator, iterator.next());
+                queue.add(iterator);
+            }
+        }
+        return result;
+    }
+
+    private String getPageSuffix(int limit, int offset) {
+        StringBuilder builder = new StringBuilder();
+        if (0 < limit) {
+            builder.append(" LIMIT ").append(limit);
+        }
+        if (0 < offset) {
+            builder.append(" OFFSET  ").append(offset);
+        }
+        return builder.toString();
+    }
+
+    private int[] getVarcharTypes(int size) {
+        int[] result = new int[size];
+        Arrays.fill(result, JDBCType.VARCHAR.getVendorTypeNumber());
+        return result;
     }
 
     private String getInParameter(int size) {
@@ -0,0 +1,194 @@
+package org.nphc.payroll.repository;
+
+import org.nphc.payroll.dto.Employee;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory name and login search index, values are normalized by NFKC and case folding.
+ * Prefix match is served from the sorted values, substring match from the n-gram (1 to 3 code points) postings,
+ * longer substring candidates are verified against the normalized value.
+ * It is kept in sync by the employee repository write paths.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class EmployeeNameIndex {
+    private static final int GRAM = 3;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, String[]> entries = new HashMap<>();
+    private final FieldIndex names = new FieldIndex(0), logins = new FieldIndex(1);
+
+    /**
+     * Add or replace the employee name and login.
+     */
+    public void put(Employee employee) {
+        String[] entry = new String[]{normalize(employee.getName()), normalize(employee.getLogin())};
+        lock.writeLock().lock();
+        try {
+            String[] old = entries.put(employee.getId(), entry);
+            if (old != null) {
+                names.remove(employee.getId(), old);
+                logins.remove(employee.getId(), old);
+            }
+            names.add(employee.getId(), entry);
+            logins.add(employee.getId(), entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(Collection<Employee> employees) {
+        employees.forEach(this::put);
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            String[] old = entries.remove(id);
+            if (old != null) {
+                names.remove(id, old);
+                logins.remove(id, old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Employee ids matching both of the name and login texts, null text is not filtered.
+     */
+    public Set<String> find(String name, String login, boolean isPrefix) {
+        lock.readLock().lock();
+        try {
+            Set<String> result = null;
+            if (name != null) {
+                result = names.find(normalize(name), isPrefix);
+            }
+            if (login != null) {
+                Set<String> loginIds = logins.find(normalize(login), isPrefix);
+                if (result == null) {
+                    result = loginIds;
+                } else {
+                    result.retainAll(loginIds);
+                }
+            }
+            return result == null ? new HashSet<>(entries.keySet()) : result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * NFKC normalization and case folding, upper then lower case fold the special cases like sharp s.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String value = Normalizer.normalize(text.trim(), Normalizer.Form.NFKC);
+        return value.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    private final class FieldIndex {
+        private final int field;
+        private final NavigableMap<String, Set<String>> values = new TreeMap<>();
+        private final Map<String, Set<String>> grams = new HashMap<>();
+
+        private FieldIndex(int field) {
+            this.field = field;
+        }
+
+        private void add(String id, String[] entry) {
+            String value = entry[field];
+            values.computeIfAbsent(value, key -> new HashSet<>()).add(id);
+            getGrams(value).forEach(gram -> grams.computeIfAbsent(gram, key -> new HashSet<>()).add(id));
+        }
+
+        private void remove(String id, String[] entry) {
+            String value = entry[field];
+            removePosting(values, value, id);
+            getGrams(value).forEach(gram -> removePosting(grams, gram, id));
+        }
+
+        private Set<String> find(String text, boolean isPrefix) {
+            Set<String> result = new HashSet<>();
+            if (isPrefix) {
+                for (Map.Entry<String, Set<String>> entry : values.tailMap(text, true).entrySet()) {
+                    if (!entry.getKey().startsWith(text)) {
+                        break;
+                    }
+                    result.addAll(entry.getValue());
+                }
+                return result;
+            }
+            int length = text.codePointCount(0, text.length());
+            if (length <= GRAM) {
+                Set<String> posting = length == 0 ? null : grams.get(text);
+                if (posting != null) {
+                    result.addAll(posting);
+                }
+                return result;
+            }
+            List<Set<String>> postings = new ArrayList<>();
+            for (String gram : getGrams(text, GRAM)) {
+                Set<String> posting = grams.get(gram);
+                if (posting == null) {
+                    return result;
+                }
+                postings.add(posting);
+            }
+            postings.sort(Comparator.comparingInt(Set::size));
+            for (String id : postings.get(0)) {
+                boolean isMatch = true;
+                for (int index = 1; index < postings.size() && isMatch; index++) {
+                    isMatch = postings.get(index).contains(id);
+                }
+                if (isMatch && entries.get(id)[field].contains(text)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+
+        private Set<String> getGrams(String value) {
+            Set<String> result = new HashSet<>();
+            for (int size = 1; size <= GRAM; size++) {
+                result.addAll(getGrams(value, size));
+            }
+            return result;
+        }
+
+        private Set<String> getGrams(String value, int size) {
+            int[] codePoints = value.codePoints().toArray();
+            Set<String> result = new HashSet<>();
+            for (int index = 0; index + size <= codePoints.length; index++) {
+                result.add(new String(codePoints, index, size));
+            }
+            return result;
+        }
+
+        private void removePosting(Map<String, Set<String>> map, String key, String id) {
+            Set<String> posting = map.get(key);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    map.remove(key);
+                }
+            }
+        }
+    }
+}
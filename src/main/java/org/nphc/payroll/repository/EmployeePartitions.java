@@ -0,0 +1,143 @@
+package org.nphc.payroll.repository;
+
+import org.nphc.payroll.dto.MessageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Employee storage partitions, employees are spread across the databases by hash of id.
+ * Partition zero is the application datasource, other partitions are created from the partition url pattern.
+ * Single partition is the default, then all the calls are running in the caller thread.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class EmployeePartitions {
+    private static final Logger logger = LoggerFactory.getLogger(EmployeePartitions.class);
+    private final List<JdbcTemplate> templates = new ArrayList<>();
+    private final List<TransactionTemplate> transactions = new ArrayList<>();
+    private final List<DataSource> created = new ArrayList<>();
+    private final ExecutorService executor;
+
+    public EmployeePartitions(DataSource dataSource, JdbcTemplate jdbcTemplate,
+                              @Value("${nphc.storage.partitions:1}") int partitions,
+                              @Value("${nphc.storage.partition-url:jdbc:h2:mem:nphc-payroll-p%d}") String partitionUrl,
+                              @Value("${nphc.storage.concurrency:8}") int concurrency,
+                              @Value("${spring.datasource.username:sa}") String username,
+                              @Value("${spring.datasource.password:}") String password) {
+        templates.add(jdbcTemplate);
+        transactions.add(new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        for (int index = 1; index < partitions; index++) {
+            DataSource partition = DataSourceBuilder.create().url(String.format(partitionUrl, index))
+                    .username(username).password(password).build();
+            created.add(partition);
+            templates.add(new JdbcTemplate(partition));
+            transactions.add(new TransactionTemplate(new DataSourceTransactionManager(partition)));
+        }
+        if (1 < templates.size()) {
+            // Each partition runs up to concurrency calls at once, the pool is shared by all the requests
+            int threads = templates.size() * Math.max(1, concurrency);
+            logger.info("Employee storage partitions : " + templates.size() + ", threads : " + threads);
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "employee-partition-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    public boolean isPartitioned() {
+        return 1 < templates.size();
+    }
+
+    /**
+     * Owning partition index of the employee id.
+     */
+    public int indexOf(String id) {
+        return Math.floorMod(id.hashCode(), templates.size());
+    }
+
+    public JdbcTemplate get(int index) {
+        return templates.get(index);
+    }
+
+    public JdbcTemplate getOwner(String id) {
+        return templates.get(indexOf(id));
+    }
+
+    public TransactionTemplate getTransaction(int index) {
+        return transactions.get(index);
+    }
+
+    /**
+     * Run the calls in parallel, results are in the same order of the calls.
+     */
+    public <T> List<T> parallel(List<Supplier<T>> calls) {
+        if (executor == null || calls.size() < 2) {
+            List<T> result = new ArrayList<>();
+            calls.forEach(call -> result.add(call.get()));
+            return result;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        calls.forEach(call -> futures.add(CompletableFuture.supplyAsync(call, executor)));
+        List<T> result = new ArrayList<>();
+        RuntimeException failure = null;
+        for (CompletableFuture<T> future : futures) {
+            try {
+                result.add(future.join());
+            } catch (CompletionException ex) {
+                result.add(null);
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+                            : new MessageException(ex.getMessage());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (DataSource dataSource : created) {
+            if (dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) dataSource).close();
+                } catch (IOException ex) {
+                    logger.error(ex.getMessage());
+                }
+            }
+        }
+    }
+}
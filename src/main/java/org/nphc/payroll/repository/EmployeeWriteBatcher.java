@@ -0,0 +1,255 @@
+package org.nphc.payroll.repository;
+
+import org.nphc.payroll.dto.Employee;
+import org.nphc.payroll.dto.MessageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit of the concurrent single employee writes.
+ * Writes are gathered over a short window or up to the maximum batch size, consecutive writes of the same kind are
+ * written as one jdbc batch per partition in one transaction. When the batch fails, the writes are retried one by one,
+ * so each caller is completed with its own result or conflict error.
+ * Queued write waits up to the timeout (503), when the worker is not running the write is done directly.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class EmployeeWriteBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(EmployeeWriteBatcher.class);
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final LongAdder writes = new LongAdder(), batches = new LongAdder(), retries = new LongAdder();
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long timeoutMillis;
+    private volatile Thread worker;
+
+    @Autowired
+    private EmployeeJdbc employeeJdbc;
+
+    @Autowired
+    private EmployeePartitions partitions;
+
+    public EmployeeWriteBatcher(@Value("${nphc.write-batch.enabled:false}") boolean enabled,
+                                @Value("${nphc.write-batch.window-ms:2}") long windowMillis,
+                                @Value("${nphc.write-batch.max-size:64}") int maxBatchSize,
+                                @Value("${nphc.write-batch.timeout-ms:5000}") long timeoutMillis) {
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            worker = new Thread(this::run, "employee-write-batcher");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Insert employee, conflict is reported the same as the single statement insert.
+     */
+    public void insert(Employee employee) {
+        if (!isRunning()) {
+            employeeJdbc.insert(employee);
+            return;
+        }
+        submit(new PendingWrite(true, employee));
+    }
+
+    /**
+     * Update employee, conflict or missing employee is reported the same as the single statement update.
+     */
+    public void update(Employee employee) {
+        if (!isRunning()) {
+            employeeJdbc.update(employee);
+            return;
+        }
+        submit(new PendingWrite(false, employee));
+    }
+
+    /**
+     * Worker is started and not stopped or died.
+     */
+    public boolean isRunning() {
+        Thread current = worker;
+        return current != null && current.isAlive();
+    }
+
+    /**
+     * Queued write times out (503, not written), a write taken by the worker is always completed by it,
+     * the caller waits for the result so a timed out write is never committed behind the caller.
+     */
+    private void submit(PendingWrite write) {
+        queue.add(write);
+        try {
+            try {
+                write.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                if (queue.remove(write)) {
+                    throw new MessageException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Service busy - employee is not written");
+                }
+                write.future.get();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new MessageException(HttpStatus.INTERNAL_SERVER_ERROR, String.valueOf(ex.getCause()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MessageException(HttpStatus.SERVICE_UNAVAILABLE, "Write interrupted");
+        }
+    }
+
+    private void run() {
+        try {
+            runBatches();
+        } finally {
+            List<PendingWrite> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            rest.forEach(write -> write.future.completeExceptionally(new MessageException(
+                    HttpStatus.SERVICE_UNAVAILABLE, "Service is stopping")));
+        }
+    }
+
+    private void runBatches() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite write = remaining <= 0 ? queue.poll() : queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (write == null) {
+                        break;
+                    }
+                    batch.add(write);
+                }
+                write(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                batch.forEach(write -> write.future.completeExceptionally(new MessageException(
+                        HttpStatus.SERVICE_UNAVAILABLE, "Service is stopping")));
+            } catch (RuntimeException ex) {
+                logger.error(ex.getMessage());
+                batch.forEach(write -> write.future.completeExceptionally(ex));
+            } catch (Error ex) {
+                logger.error("Write batcher stopped : " + ex);
+                batch.forEach(write -> write.future.completeExceptionally(ex));
+                throw ex;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Consecutive writes of the same kind keep the arrival order between inserts and updates.
+     */
+    private void write(List<PendingWrite> batch) {
+        writes.add(batch.size());
+        int start = 0;
+        for (int index = 1; index <= batch.size(); index++) {
+            if (index == batch.size() || batch.get(index).isInsert != batch.get(start).isInsert) {
+                Map<Integer, List<PendingWrite>> partitionMap = new TreeMap<>();
+                batch.subList(start, index).forEach(write -> partitionMap.computeIfAbsent(
+                        partitions.indexOf(write.employee.getId()), key -> new ArrayList<>()).add(write));
+                partitionMap.values().forEach(this::writeBatch);
+                start = index;
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> list) {
+        batches.increment();
+        List<Employee> employeeList = new ArrayList<>();
+        list.forEach(write -> employeeList.add(write.employee));
+        try {
+            if (list.get(0).isInsert) {
+                employeeJdbc.insert(employeeList);
+                list.forEach(write -> write.future.complete(null));
+            } else {
+                Set<String> missing = new HashSet<>(employeeJdbc.update(employeeList));
+                list.forEach(write -> {
+                    if (missing.contains(write.employee.getId())) {
+                        write.future.completeExceptionally(new MessageException("Bad input - no such employee"));
+                    } else {
+                        write.future.complete(null);
+                    }
+                });
+            }
+        } catch (RuntimeException ex) {
+            logger.debug("Write batch failed, retry one by one : " + ex.getMessage());
+            retries.increment();
+            list.forEach(this::writeOne);
+        }
+    }
+
+    private void writeOne(PendingWrite write) {
+        try {
+            if (write.isInsert) {
+                employeeJdbc.insert(write.employee);
+            } else {
+                employeeJdbc.update(write.employee);
+            }
+            write.future.complete(null);
+        } catch (RuntimeException ex) {
+            write.future.completeExceptionally(ex);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    private static final class PendingWrite {
+        private final boolean isInsert;
+        private final Employee employee;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(boolean isInsert, Employee employee) {
+            this.isInsert = isInsert;
+            this.employee = employee;
+        }
+    }
+}
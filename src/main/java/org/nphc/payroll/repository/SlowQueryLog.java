@@ -0,0 +1,200 @@
+package org.nphc.payroll.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Slow query log of the employee jdbc calls, it keeps the slowest statements over the threshold.
+ * SQL text, bind values, row count and duration are captured when the statement enter the log.
+ * The plan is captured later by a background thread on its own connection, out of the caller transaction.
+ * Select plan is EXPLAIN ANALYZE (the query run again), other statements and the row locking select
+ * (FOR UPDATE, it would wait for the caller locks) are EXPLAIN only.
+ * When disabled, the call is not timed.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class SlowQueryLog {
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+    public static final String PLAN_PENDING = "Plan pending";
+    private static final Pattern ROW_LOCK = Pattern.compile("\\bFOR\\s+UPDATE\\b", Pattern.CASE_INSENSITIVE);
+    private final PriorityQueue<SlowQuery> slowest = new PriorityQueue<>(Comparator.comparingLong(SlowQuery::getNanos));
+    private volatile boolean enabled;
+    private volatile long thresholdNanos;
+    private final int capacity;
+    private final ExecutorService planExecutor;
+
+    public SlowQueryLog(@Value("${nphc.slow-query.enabled:false}") boolean enabled,
+                        @Value("${nphc.slow-query.threshold-ms:100}") long thresholdMillis,
+                        @Value("${nphc.slow-query.capacity:20}") int capacity) {
+        this.enabled = enabled;
+        this.thresholdNanos = thresholdMillis * 1000000L;
+        this.capacity = Math.max(1, capacity);
+        this.planExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(this.capacity), runnable -> {
+            Thread thread = new Thread(runnable, "slow-query-plan");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void close() {
+        planExecutor.shutdownNow();
+    }
+
+    /**
+     * Run the jdbc call, it is recorded when the duration is more than the threshold.
+     */
+    public <T> T record(JdbcTemplate template, String sql, Object[] args, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        T result = call.get();
+        long nanos = System.nanoTime() - start;
+        if (thresholdNanos <= nanos && isSlowest(nanos)) {
+            SlowQuery slowQuery = new SlowQuery(sql, args, getRows(result), nanos);
+            add(slowQuery);
+            Object[] values = args == null ? null : args.clone();
+            planExecutor.execute(() -> slowQuery.plan = getPlan(template, sql, values));
+        }
+        return result;
+    }
+
+    private synchronized boolean isSlowest(long nanos) {
+        return slowest.size() < capacity || slowest.peek().getNanos() < nanos;
+    }
+
+    private synchronized void add(SlowQuery slowQuery) {
+        slowest.add(slowQuery);
+        while (capacity < slowest.size()) {
+            slowest.poll();
+        }
+    }
+
+    /**
+     * Slow queries, slowest is first.
+     */
+    public synchronized List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> result = new ArrayList<>(slowest);
+        result.sort(Comparator.comparingLong(SlowQuery::getNanos).reversed());
+        return result;
+    }
+
+    public synchronized void reset() {
+        slowest.clear();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdNanos / 1000000L;
+    }
+
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1000000L;
+    }
+
+    private String getPlan(JdbcTemplate template, String sql, Object[] args) {
+        boolean isAnalyze = sql.trim().toUpperCase().startsWith("SELECT") && !ROW_LOCK.matcher(sql).find();
+        String explain = isAnalyze ? "EXPLAIN ANALYZE " : "EXPLAIN ";
+        try {
+            List<String> lines = template.query(explain + sql, (rs, rowNum) -> rs.getString(1), args);
+            return String.join("\n", lines);
+        } catch (DataAccessException ex) {
+            logger.debug(ex.getMessage());
+            return "Plan not available : " + ex.getMessage();
+        }
+    }
+
+    private int getRows(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        } else if (result instanceof Integer) {
+            return (Integer) result;
+        } else if (result instanceof int[]) {
+            return Arrays.stream((int[]) result).sum();
+        } else if (result instanceof int[][]) {
+            return Arrays.stream((int[][]) result).flatMapToInt(Arrays::stream).sum();
+        }
+        return 0;
+    }
+
+    /**
+     * Slow statement entry.
+     */
+    public static class SlowQuery {
+        private final String sql, parameters;
+        private volatile String plan = PLAN_PENDING;
+        private final int rows;
+        private final long nanos;
+        private final Instant recordedAt = Instant.now();
+
+        private SlowQuery(String sql, Object[] args, int rows, long nanos) {
+            this.sql = sql;
+            this.parameters = getText(args);
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+
+        private static String getText(Object[] args) {
+            if (args == null) {
+                return "[]";
+            }
+            List<String> values = new ArrayList<>();
+            for (Object arg : args) {
+                values.add(arg instanceof Object[] ? Arrays.toString((Object[]) arg) : String.valueOf(arg));
+            }
+            return values.toString();
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getParameters() {
+            return parameters;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getMillis() {
+            return nanos / 1000000d;
+        }
+
+        public Instant getRecordedAt() {
+            return recordedAt;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.nphc.payroll.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission gate limit the concurrent requests, excess requests are waiting in a short bounded queue
+ * until the queue timeout, then it is rejected.
+ *
+ * @author Selvaraj Ramesh
+ */
+public class AdmissionGate {
+    private final Semaphore permits;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder(), queued = new LongAdder(), rejected = new LongAdder();
+
+    public AdmissionGate(int maxConcurrent, int maxQueue, long queueTimeoutMillis) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueTimeoutMillis = Math.max(0, queueTimeoutMillis);
+    }
+
+    /**
+     * Try to admit the request, it should be released by {@link #release()} when admitted.
+     */
+    public boolean acquire() {
+        if (permits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+        if (maxQueue < waiting.incrementAndGet()) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        queued.increment();
+        try {
+            if (permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                admitted.increment();
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+}
@@ -0,0 +1,81 @@
+package org.nphc.payroll.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing (single flight), concurrent identical reads are sharing one in-flight call and its result.
+ * The key should be normalized request parameters, result is dropped once the call is completed.
+ *
+ * @author Selvaraj Ramesh
+ */
+@Component
+public class RequestCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(RequestCoalescer.class);
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder(), coalesced = new LongAdder();
+
+    /**
+     * Execute the supplier, or wait for the identical in-flight call of the same key.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> supplier) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.increment();
+            return (T) join(running);
+        }
+        executed.increment();
+        try {
+            T result = supplier.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object join(CompletableFuture<Object> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            logger.error(ex.getMessage());
+            throw ex;
+        }
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Ratio of requests served by another in-flight call to total requests.
+     */
+    public double getCoalescingRatio() {
+        long shared = coalesced.sum(), total = shared + executed.sum();
+        return total == 0 ? 0d : (double) shared / total;
+    }
+}
@@ -2,12 +2,24 @@ package org.nphc.payroll.embeded;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.nphc.payroll.dto.Employee;
+import org.nphc.payroll.dto.MessageException;
+import org.nphc.payroll.repository.EmployeeJdbc;
+import org.nphc.payroll.repository.EmployeeNameIndex;
+import org.nphc.payroll.repository.EmployeePartitions;
+import org.nphc.payroll.repository.EmployeeWriteBatcher;
+import org.nphc.payroll.repository.SlowQueryLog;
+import org.nphc.payroll.service.RequestCoalescer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
@@ -17,6 +29,23 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -24,6 +53,24 @@ public class EmployeeControllerTest {
     @Autowired
     private WebApplicationContext webApplicationContext;
 
+    @Autowired
+    private AdmissionFilter admissionFilter;
+
+    @Autowired
+    private SlowQueryLog slowQueryLog;
+
+    @Autowired
+    private RequestCoalescer requestCoalescer;
+
+    @Autowired
+    private EmployeeJdbc employeeJdbc;
+
+    @Autowired
+    private EmployeeNameIndex nameIndex;
+
+    @Autowired
+    private EmployeePartitions partitions;
+
     @Test
     public void employeeUploadTest() throws Exception {
         MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
@@ -64,4 +111,480 @@ public class EmployeeControllerTest {
         MockHttpServletRequestBuilder builder = MockMvcRequestBuilders.delete("/users/R001");
         mockMvc.perform(builder).andDo(MockMvcResultHandlers.print()).andExpect(MockMvcResultMatchers.status().isOk());
     }
+
+    @Test
+    public void coalescingMetricsTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("minSalary", "1000.00"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        MockHttpServletRequestBuilder builder = MockMvcRequestBuilders.get("/metrics/coalescing");
+        mockMvc.perform(builder).andDo(MockMvcResultHandlers.print()).andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.executed").isNumber())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.ratio").isNumber());
+    }
+
+    @Test
+    public void concurrentCoalescingTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        long executed = requestCoalescer.getExecuted(), coalesced = requestCoalescer.getCoalesced();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> requestCoalescer.execute("test:latch", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return "result";
+            }));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(() -> requestCoalescer.execute("test:latch", () -> {
+                calls.incrementAndGet();
+                return "other";
+            }));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requestCoalescer.getCoalesced() == coalesced && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            Assertions.assertEquals("result", first.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("result", second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(1, requestCoalescer.getExecuted() - executed);
+        Assertions.assertEquals(1, requestCoalescer.getCoalesced() - coalesced);
+    }
+
+    @Test
+    public void employeeConflictTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode emp = objectMapper.createObjectNode();
+        emp.put("id", "C001");
+        emp.put("login", "conflict01");
+        emp.put("name", "Conflict One");
+        emp.put("salary", "2500");
+        emp.put("startDate", "2022-05-20");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        emp.put("login", "conflict02");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Employee ID already exists"));
+        emp.put("id", "C002");
+        emp.put("login", "conflict01");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Employee login not unique"));
+        mockMvc.perform(MockMvcRequestBuilders.patch("/users/C002").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Bad input - no such employee"));
+    }
+
+    @Test
+    public void admissionMetricsTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).addFilters(admissionFilter).build();
+        long admitted = admissionFilter.getSearchGate().getAdmitted();
+        long rejected = admissionFilter.getUploadGate().getRejected();
+        mockMvc.perform(MockMvcRequestBuilders.get("/users")).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("limit", "10"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        MockHttpServletRequestBuilder builder = MockMvcRequestBuilders.get("/metrics/admission");
+        mockMvc.perform(builder).andDo(MockMvcResultHandlers.print()).andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.search.admitted").isNumber());
+        Assertions.assertEquals(1, admissionFilter.getSearchGate().getAdmitted() - admitted);
+        Assertions.assertEquals(0, admissionFilter.getUploadGate().getRejected() - rejected);
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("limit", "1001"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void employeeNameSearchTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode emp = objectMapper.createObjectNode();
+        emp.put("id", "N001");
+        emp.put("login", "zoe.strasse");
+        emp.put("name", "Zoë Straße");
+        emp.put("salary", "3200");
+        emp.put("startDate", "2022-05-20");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("name", "STRASSE"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].id").value("N001"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("login", "ＺＯＥ").param("match", "prefix")
+                .param("minSalary", "3000")).andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].id").value("N001"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("login", "strasse").param("match", "prefix"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results").isEmpty());
+    }
+
+    @Test
+    public void slowQueryLogTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        slowQueryLog.setThresholdMillis(0);
+        slowQueryLog.setEnabled(true);
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.get("/users").param("maxSalary", "99999"))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+            mockMvc.perform(MockMvcRequestBuilders.get("/metrics/slow-queries")).andDo(MockMvcResultHandlers.print())
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].parameters").value("[99999]"))
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].plan").isNotEmpty());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (SlowQueryLog.PLAN_PENDING.equals(slowQueryLog.getSlowQueries().get(0).getPlan())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assertions.assertTrue(slowQueryLog.getSlowQueries().get(0).getPlan().contains("EMPLOYEE"));
+            mockMvc.perform(MockMvcRequestBuilders.delete("/metrics/slow-queries"))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+            mockMvc.perform(MockMvcRequestBuilders.get("/metrics/slow-queries"))
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.results").isEmpty());
+        } finally {
+            slowQueryLog.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void slowQueryLockPlanTest() {
+        Employee employee = getEmployee("L001", "Lock One");
+        employee.setLogin("lock01");
+        employeeJdbc.insert(employee);
+        JdbcTemplate template = partitions.getOwner("L001");
+        String sql = "SELECT id FROM employee WHERE id = ? FOR UPDATE";
+        Object[] args = new Object[]{"L001"};
+        slowQueryLog.reset();
+        slowQueryLog.setThresholdMillis(0);
+        slowQueryLog.setEnabled(true);
+        try {
+            partitions.getTransaction(partitions.indexOf("L001")).executeWithoutResult(status -> {
+                slowQueryLog.record(template, sql, args, () -> template.queryForList(sql, String.class, args));
+                long deadline = System.currentTimeMillis() + 5000;
+                while (SlowQueryLog.PLAN_PENDING.equals(slowQueryLog.getSlowQueries().get(0).getPlan())
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                String plan = slowQueryLog.getSlowQueries().get(0).getPlan();
+                Assertions.assertFalse(plan.startsWith("Plan not available"), plan);
+                Assertions.assertTrue(plan.contains("FOR UPDATE"), plan);
+                Assertions.assertFalse(plan.contains("scanCount"), plan);
+            });
+        } finally {
+            slowQueryLog.setEnabled(false);
+            slowQueryLog.reset();
+            employeeJdbc.deleteById("L001");
+        }
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int index = 1; index <= 8; index++) {
+                ObjectNode emp = objectMapper.createObjectNode();
+                emp.put("id", "B00" + index);
+                emp.put("login", "batch0" + ((index + 1) / 2));
+                emp.put("name", "Batch " + index);
+                emp.put("salary", "2700");
+                emp.put("startDate", "2022-05-20");
+                String content = objectMapper.writeValueAsString(emp);
+                futures.add(executor.submit(() -> mockMvc.perform(MockMvcRequestBuilders.post("/users/")
+                        .contentType(MediaType.APPLICATION_JSON).content(content)).andReturn().getResponse().getStatus()));
+            }
+            int created = 0, conflict = 0;
+            for (Future<Integer> future : futures) {
+                int status = future.get();
+                if (status == 200) {
+                    created += 1;
+                } else if (status == 400) {
+                    conflict += 1;
+                }
+            }
+            Assertions.assertEquals(4, created);
+            Assertions.assertEquals(4, conflict);
+        } finally {
+            executor.shutdown();
+        }
+        mockMvc.perform(MockMvcRequestBuilders.get("/metrics/write-batch")).andDo(MockMvcResultHandlers.print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.enabled").value(true))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.running").value(true));
+    }
+
+    @Test
+    public void stoppedWriteBatcherTest() throws Exception {
+        EmployeeWriteBatcher batcher = new EmployeeWriteBatcher(true, 2, 64, 1000);
+        ReflectionTestUtils.setField(batcher, "employeeJdbc", employeeJdbc);
+        ReflectionTestUtils.setField(batcher, "partitions", partitions);
+        batcher.start();
+        Employee employee = getEmployee("W001", "Stopped One");
+        employee.setLogin("stopped01");
+        batcher.insert(employee);
+        Assertions.assertEquals(1, batcher.getBatches());
+        batcher.stop();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batcher.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assertions.assertFalse(batcher.isRunning());
+        Employee other = getEmployee("W002", "Stopped Two");
+        other.setLogin("stopped02");
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> batcher.insert(other));
+        Assertions.assertEquals(1, batcher.getBatches());
+        Assertions.assertEquals("Stopped Two", employeeJdbc.findById("W002").getName());
+    }
+
+    @Test
+    public void writeBatcherTimeoutTest() throws Exception {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch taken = new CountDownLatch(1);
+        EmployeeJdbc slowJdbc = new EmployeeJdbc() {
+            @Override
+            public void insert(List<Employee> employeeList) {
+                taken.countDown();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                employeeList.forEach(employee -> written.add(employee.getId()));
+            }
+        };
+        EmployeeWriteBatcher batcher = new EmployeeWriteBatcher(true, 0, 64, 50);
+        ReflectionTestUtils.setField(batcher, "employeeJdbc", slowJdbc);
+        ReflectionTestUtils.setField(batcher, "partitions", partitions);
+        batcher.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> first = executor.submit(() -> batcher.insert(getEmployee("T001", "Timeout One")));
+            Assertions.assertTrue(taken.await(5, TimeUnit.SECONDS));
+            MessageException ex = Assertions.assertThrows(MessageException.class,
+                    () -> batcher.insert(getEmployee("T002", "Timeout Two")));
+            Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ex.getHttpStatus());
+            first.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(Collections.singletonList("T001"), written);
+        } finally {
+            executor.shutdownNow();
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void salaryAdjustmentTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        String[] salaries = new String[]{"1000.5", "2000", "3000"};
+        for (int index = 1; index <= salaries.length; index++) {
+            ObjectNode emp = objectMapper.createObjectNode();
+            emp.put("id", "S00" + index);
+            emp.put("login", "adjust0" + index);
+            emp.put("name", "Adjust " + index);
+            emp.put("salary", salaries[index - 1]);
+            emp.put("startDate", "1999-0" + index + "-15");
+            mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        }
+        ObjectNode adjustment = objectMapper.createObjectNode();
+        adjustment.put("type", "percent");
+        adjustment.put("amount", 10);
+        adjustment.put("startDateFrom", "1999-01-01");
+        adjustment.put("startDateTo", "1999-12-31");
+        adjustment.put("dryRun", true);
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/salary-adjustment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(adjustment))).andDo(MockMvcResultHandlers.print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.count").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalBefore").value(6000.5))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalAfter").value(6600.55));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/S001"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.salary").value(1000.5));
+        adjustment.put("dryRun", "true");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/salary-adjustment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(adjustment)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Invalid dryRun"));
+        adjustment.put("dryRun", true);
+        adjustment.put("minSalary", "abc");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/salary-adjustment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(adjustment)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/S001"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.salary").value(1000.5));
+        adjustment.put("dryRun", false);
+        adjustment.put("minSalary", 1500);
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/salary-adjustment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(adjustment))).andDo(MockMvcResultHandlers.print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.count").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalAfter").value(5500));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/S002"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.salary").value(2200));
+        adjustment.put("type", "fixed");
+        adjustment.put("amount", -5000);
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/salary-adjustment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(adjustment)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void employeeAsOfTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        String beforeInsert = Instant.now().toString();
+        Thread.sleep(5);
+        ObjectNode emp = objectMapper.createObjectNode();
+        emp.put("id", "H001");
+        emp.put("login", "history01");
+        emp.put("name", "History One");
+        emp.put("salary", "1234.56");
+        emp.put("startDate", "2001-01-01");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        Thread.sleep(5);
+        String afterInsert = Instant.now().toString();
+        Thread.sleep(5);
+        emp.put("salary", "2345.67");
+        mockMvc.perform(MockMvcRequestBuilders.put("/users/H001").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        Thread.sleep(5);
+        String afterUpdate = Instant.now().toString();
+        Thread.sleep(5);
+        mockMvc.perform(MockMvcRequestBuilders.delete("/users/H001")).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/H001/as-of").param("at", beforeInsert))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("employee not found."));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/H001/as-of").param("at", afterInsert))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.salary").value(1234.56));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/H001/as-of").param("at", afterUpdate))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.salary").value(2345.67));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/H001/as-of").param("at", Instant.now().toString()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("employee not found."));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", afterInsert)
+                .param("minSalary", "1234").param("maxSalary", "1235")).andDo(MockMvcResultHandlers.print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].id").value("H001"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", afterUpdate)
+                .param("minSalary", "1234").param("maxSalary", "1235"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.length()").value(0));
+        String afterDelete = Instant.now().toString();
+        Thread.sleep(5);
+        emp.put("salary", "1234.78");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", afterDelete)
+                .param("minSalary", "1234").param("maxSalary", "1235"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.length()").value(0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", Instant.now().toString())
+                .param("minSalary", "1234").param("maxSalary", "1235"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].salary").value(1234.78));
+        mockMvc.perform(MockMvcRequestBuilders.delete("/users/H001")).andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", "yesterday"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void historyAsOfPlanTest() throws Exception {
+        Employee employee = getEmployee("P001", "Plan Start");
+        employee.setLogin("plan01");
+        employeeJdbc.insert(employee);
+        OffsetDateTime afterInsert = OffsetDateTime.now(ZoneOffset.UTC);
+        Thread.sleep(5);
+        for (int index = 0; index < 20; index++) {
+            employee.setName("Plan Version " + index);
+            employeeJdbc.update(employee);
+        }
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        Assertions.assertEquals("Plan Start", employeeJdbc.findByIdAsOf("P001", afterInsert).getName());
+        Assertions.assertEquals("Plan Version 19", employeeJdbc.findByIdAsOf("P001", now).getName());
+        JdbcTemplate template = partitions.getOwner("P001");
+        Pattern seek = Pattern.compile("EMPLOYEE_HISTORY_TO_UK: [^*]*VALID_TO > [^*]*\\*/\\s*/\\* scanCount: (\\d+)");
+        for (String name : new String[]{"HISTORY_AS_OF_SQL", "HISTORY_FIND_SQL"}) {
+            String sql = "EXPLAIN ANALYZE " + ReflectionTestUtils.getField(EmployeeJdbc.class, name);
+            for (OffsetDateTime asOf : new OffsetDateTime[]{afterInsert, now}) {
+                String plan = "HISTORY_AS_OF_SQL".equals(name)
+                        ? template.queryForObject(sql, String.class, asOf, asOf)
+                        : template.queryForObject(sql, String.class, "P001", asOf, asOf);
+                Assertions.assertFalse(plan.contains("tableScan"), plan);
+                Matcher matcher = seek.matcher(plan);
+                Assertions.assertTrue(matcher.find(), plan);
+                do {
+                    Assertions.assertEquals("1", matcher.group(1), plan);
+                } while (matcher.find());
+            }
+        }
+        employeeJdbc.deleteById("P001");
+    }
+
+    @Test
+    public void chunkedIdFilterTest() {
+        List<Employee> expected = employeeJdbc.search("a", null, false, null, null, "name", 0, 0, false);
+        Assertions.assertTrue(3 < expected.size());
+        ReflectionTestUtils.setField(employeeJdbc, "maxIdFilter", 2);
+        try {
+            List<Employee> all = employeeJdbc.search("a", null, false, null, null, "name", 0, 0, false);
+            List<Employee> page = employeeJdbc.search("a", null, false, null, null, "name", 2, 1, false);
+            Assertions.assertEquals(getIds(expected), getIds(all));
+            Assertions.assertEquals(getIds(expected.subList(1, 3)), getIds(page));
+        } finally {
+            ReflectionTestUtils.setField(employeeJdbc, "maxIdFilter", 1000);
+        }
+    }
+
+    @Test
+    public void nameIndexOrderTest() throws Exception {
+        employeeJdbc.insert(getEmployee("O001", "Order Start"));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                for (int index = 0; index < 50; index++) {
+                    employeeJdbc.update(getEmployee("O001", "Order Single " + index));
+                }
+            }));
+            futures.add(executor.submit(() -> {
+                for (int index = 0; index < 50; index++) {
+                    employeeJdbc.update(Collections.singletonList(getEmployee("O001", "Order Batch " + index)));
+                }
+            }));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        String name = employeeJdbc.findById("O001").getName();
+        Assertions.assertTrue(nameIndex.find(name, null, false).contains("O001"));
+        Assertions.assertFalse(nameIndex.find("Order Start", null, false).contains("O001"));
+    }
+
+    private List<String> getIds(List<Employee> list) {
+        List<String> ids = new ArrayList<>();
+        list.forEach(employee -> ids.add(employee.getId()));
+        return ids;
+    }
+
+    private Employee getEmployee(String id, String name) {
+        Employee employee = new Employee(id);
+        employee.setLogin("order01");
+        employee.setName(name);
+        employee.setSalary(new BigDecimal("1500"));
+        employee.setStartDate(LocalDate.of(2022, 5, 20));
+        return employee;
+    }
 }
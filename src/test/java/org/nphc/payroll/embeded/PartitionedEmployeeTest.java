@@ -0,0 +1,235 @@
+package org.nphc.payroll.embeded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.nphc.payroll.dto.Employee;
+import org.nphc.payroll.dto.MessageException;
+import org.nphc.payroll.dto.SalaryAdjustment;
+import org.nphc.payroll.repository.EmployeeJdbc;
+import org.nphc.payroll.repository.EmployeePartitions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@SpringBootTest(properties = {"nphc.storage.partitions=3",
+        "spring.datasource.url=jdbc:h2:mem:nphc-partitioned",
+        "nphc.storage.partition-url=jdbc:h2:mem:nphc-partitioned-p%d",
+        "nphc.admission.max-page-size=6",
+        "nphc.search.max-id-filter=2",
+        "nphc.salary-adjustment.chunk-size=2"})
+public class PartitionedEmployeeTest {
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private EmployeeJdbc employeeJdbc;
+
+    @Autowired
+    private EmployeePartitions partitions;
+
+    @Test
+    public void partitionedSearchTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        String csv = "id,login,name,salary,startDate\n" +
+                "e0001,hpotter,Harry Potter,1234.00,16-Nov-01\n" +
+                "e0002,rwesley,Ron Weasley,19234.50,2001-11-16\n" +
+                "e0003,ssnape,Severus Snape,4000.0,2001-11-16\n" +
+                "e0004,rhagrid,Rubeus Hagrid,3999.999,16-Nov-01\n" +
+                "e0005,voldemort,Lord Voldemort,523.4,17-Nov-01\n" +
+                "e0006,gwesley,Ginny Weasley,4000.004,18-Nov-01\n" +
+                "e0008,adumbledore,Albus Dumbledore,34.23,2001-11-19\n" +
+                "e0009,dmalfoy,Draco Malfoy,34234.5,2001-11-20\n";
+        MockMultipartFile mockMultipartFile = new MockMultipartFile("file", "employee.csv",
+                "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/users/upload").file(mockMultipartFile))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        String all = mockMvc.perform(MockMvcRequestBuilders.get("/users").param("sorting", "salary")
+                .param("desc", "true").param("limit", "6")).andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String page = mockMvc.perform(MockMvcRequestBuilders.get("/users").param("sorting", "salary")
+                .param("desc", "true").param("offset", "1").param("limit", "2"))
+                .andExpect(MockMvcResultMatchers.status().isOk()).andReturn().getResponse().getContentAsString();
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode allResults = objectMapper.readTree(all).get("results"), pageResults = objectMapper.readTree(page).get("results");
+        Assertions.assertEquals(6, allResults.size());
+        for (int index = 1; index < allResults.size(); index++) {
+            BigDecimal previous = allResults.get(index - 1).get("salary").decimalValue();
+            Assertions.assertTrue(previous.compareTo(allResults.get(index).get("salary").decimalValue()) >= 0);
+        }
+        Assertions.assertEquals(2, pageResults.size());
+        Assertions.assertEquals(allResults.get(1).get("id"), pageResults.get(0).get("id"));
+        Assertions.assertEquals(allResults.get(2).get("id"), pageResults.get(1).get("id"));
+        String asOf = mockMvc.perform(MockMvcRequestBuilders.get("/users/as-of").param("at", Instant.now().toString())
+                .param("sorting", "salary").param("desc", "true")).andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Assertions.assertEquals(allResults, objectMapper.readTree(asOf).get("results"));
+        String firstPage = mockMvc.perform(MockMvcRequestBuilders.get("/users").param("sorting", "salary")
+                .param("desc", "true")).andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.truncated").value(true))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextOffset").value(6))
+                .andReturn().getResponse().getContentAsString();
+        Assertions.assertEquals(allResults, objectMapper.readTree(firstPage).get("results"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("offset", "6"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.truncated").doesNotExist());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("limit", "7"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("name", "weasley").param("sorting", "login"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.length()").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].id").value("e0006"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/users").param("name", "o").param("sorting", "name")
+                .param("offset", "1").param("limit", "3"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.length()").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[0].id").value("e0009"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[1].id").value("e0001"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results[2].id").value("e0005"));
+    }
+
+    @Test
+    public void partitionedSalaryAdjustmentTest() {
+        List<Integer> indexes = new ArrayList<>();
+        for (int index = 1; index <= 7; index++) {
+            Employee employee = new Employee("a00" + index);
+            employee.setLogin("adjust0" + index);
+            employee.setName("Adjust " + index);
+            employee.setSalary(new BigDecimal(100 * index));
+            employee.setStartDate(LocalDate.of(1990, 1, index));
+            employeeJdbc.insert(employee);
+            indexes.add(partitions.indexOf(employee.getId()));
+        }
+        Assertions.assertTrue(1 < new HashSet<>(indexes).size());
+        SalaryAdjustment adjustment = new SalaryAdjustment();
+        adjustment.setType(SalaryAdjustment.FIXED);
+        adjustment.setAmount(new BigDecimal("1.5"));
+        adjustment.setScale(2);
+        adjustment.setStartDateFrom(LocalDate.of(1990, 1, 1));
+        adjustment.setStartDateTo(LocalDate.of(1990, 12, 31));
+        employeeJdbc.adjustSalary(adjustment);
+        Assertions.assertEquals(7, adjustment.getCount());
+        Assertions.assertEquals(0, new BigDecimal("2800").compareTo(adjustment.getTotalBefore()));
+        Assertions.assertEquals(0, new BigDecimal("2810.5").compareTo(adjustment.getTotalAfter()));
+        for (int index = 1; index <= 7; index++) {
+            BigDecimal salary = employeeJdbc.findById("a00" + index).getSalary();
+            Assertions.assertEquals(0, new BigDecimal(100 * index).add(new BigDecimal("1.5")).compareTo(salary));
+        }
+        for (int index = 1; index <= 7; index++) {
+            employeeJdbc.deleteById("a00" + index);
+        }
+    }
+
+    @Test
+    public void partitionConcurrencyTest() throws Exception {
+        CountDownLatch latch = new CountDownLatch(2 * partitions.size());
+        List<Supplier<Boolean>> calls = new ArrayList<>();
+        for (int index = 0; index < partitions.size(); index++) {
+            calls.add(() -> {
+                latch.countDown();
+                try {
+                    return latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            });
+        }
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Boolean>> first = callers.submit(() -> partitions.parallel(calls));
+            Future<List<Boolean>> second = callers.submit(() -> partitions.parallel(calls));
+            Assertions.assertFalse(first.get().contains(false));
+            Assertions.assertFalse(second.get().contains(false));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void partitionedLoginConflictTest() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode emp = objectMapper.createObjectNode();
+        emp.put("id", "P001");
+        emp.put("login", "partition01");
+        emp.put("name", "Partition One");
+        emp.put("salary", "2500");
+        emp.put("startDate", "2022-05-20");
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isOk());
+        for (String id : new String[]{"P002", "P003", "P004"}) {
+            emp.put("id", id);
+            mockMvc.perform(MockMvcRequestBuilders.post("/users/").contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(emp))).andExpect(MockMvcResultMatchers.status().isBadRequest())
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Employee login not unique"));
+        }
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/P001")).andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.login").value("partition01"));
+    }
+
+    @Test
+    public void partitionedUpdateFailureTest() {
+        List<String> ids = new ArrayList<>();
+        for (int index = 0; ids.size() < 3; index++) {
+            String id = "F" + index;
+            if (ids.stream().noneMatch(other -> partitions.indexOf(other) == partitions.indexOf(id))) {
+                ids.add(id);
+            }
+        }
+        employeeJdbc.insert(Arrays.asList(getEmployee(ids.get(0), "failure00", "Failure"),
+                getEmployee(ids.get(1), "failure01", "Failure")));
+        char[] name = new char[200];
+        Arrays.fill(name, 'x');
+        String longName = new String(name);
+        Assertions.assertThrows(RuntimeException.class, () -> employeeJdbc.update(getEmployee(ids.get(0), "failure10",
+                longName)));
+        Assertions.assertEquals("failure00", employeeJdbc.findById(ids.get(0)).getLogin());
+        MessageException conflict = Assertions.assertThrows(MessageException.class, () -> employeeJdbc.insert(
+                getEmployee(ids.get(2), "failure00", "Failure")));
+        Assertions.assertEquals("Employee login not unique", conflict.getMessage());
+        Assertions.assertThrows(RuntimeException.class, () -> employeeJdbc.update(Arrays.asList(
+                getEmployee(ids.get(0), "failure20", longName), getEmployee(ids.get(1), "failure21", "Failure"))));
+        Assertions.assertEquals("failure00", employeeJdbc.findById(ids.get(0)).getLogin());
+        Assertions.assertEquals("failure21", employeeJdbc.findById(ids.get(1)).getLogin());
+        Assertions.assertThrows(MessageException.class, () -> employeeJdbc.insert(getEmployee(ids.get(2), "failure00",
+                "Failure")));
+        Assertions.assertThrows(MessageException.class, () -> employeeJdbc.insert(getEmployee(ids.get(2), "failure21",
+                "Failure")));
+        employeeJdbc.insert(Collections.singletonList(getEmployee(ids.get(2), "failure01", "Failure")));
+        Assertions.assertEquals("failure01", employeeJdbc.findById(ids.get(2)).getLogin());
+    }
+
+    private Employee getEmployee(String id, String login, String name) {
+        Employee employee = new Employee(id);
+        employee.setLogin(login);
+        employee.setName(name);
+        employee.setSalary(new BigDecimal("1000"));
+        employee.setStartDate(LocalDate.of(2022, 5, 20));
+        return employee;
+    }
+}
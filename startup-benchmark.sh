@@ -0,0 +1,49 @@
+#! /bin/bash
+# Startup benchmark, time to the first successful GET /users.
+# Build the application jar and class data sharing archive before : mvn -Pcds package
+
+RUNS=${RUNS:-5}
+PORT=${PORT:-18080}
+JAR=target/nphc-1.0-app.jar
+JSA=target/nphc.jsa
+
+if [ ! -f "$JAR" ]
+then
+	echo "$JAR not found, build with : mvn -Pcds package"
+	exit 1
+fi
+
+measure() {
+	label=$1
+	shift
+	total=0
+	for run in $(seq 1 "$RUNS")
+	do
+		start=$(date +%s%N)
+		java "$@" -Dserver.port="$PORT" -jar "$JAR" > /dev/null 2>&1 &
+		pid=$!
+		until curl -sf "http://localhost:$PORT/users?limit=1" > /dev/null
+		do
+			if ! kill -0 $pid 2> /dev/null
+			then
+				echo "$label : application is not started"
+				return 1
+			fi
+			sleep 0.05
+		done
+		end=$(date +%s%N)
+		kill $pid
+		wait $pid 2> /dev/null
+		elapsed=$(( (end - start) / 1000000 ))
+		total=$(( total + elapsed ))
+		echo "$label run $run : $elapsed ms"
+	done
+	echo "$label average : $(( total / RUNS )) ms"
+}
+
+measure default
+measure fast-start -Dspring.profiles.active=fast-start
+if [ -f "$JSA" ]
+then
+	measure fast-start-cds -XX:SharedArchiveFile="$JSA" -Dspring.profiles.active=fast-start
+fi